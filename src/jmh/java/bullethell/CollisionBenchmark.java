@@ -0,0 +1,75 @@
+package bullethell;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The two bullet collision passes over a fixed field of stationary bullets
+// scattered across the arena. Hits remove bullets, so every operation first
+// restores the field from a template; restoreOnly() measures that copy so it
+// can be subtracted from the other results.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+    @Param({"1000", "10000", "100000"})
+    int bullets;
+
+    private GameWorld world;
+    private BulletPool enemyTemplate;
+    private BulletPool playerTemplate;
+
+    @Setup
+    public void setUp() {
+        world = new GameWorld(600, 600, bullets, bullets);
+        world.reset(3);
+        TickBenchmark.makeImmortal(world);
+        enemyTemplate = scatter(bullets, 1);
+        playerTemplate = scatter(bullets, 2);
+        world.rebuildBroadPhase();
+    }
+
+    private static BulletPool scatter(int n, long seed) {
+        Random random = new Random(seed);
+        BulletPool pool = new BulletPool(n);
+        for (int i = 0; i < n; i++) {
+            pool.spawn(random.nextDouble() * 600, random.nextDouble() * 600, 0, 0);
+        }
+        return pool;
+    }
+
+    @Benchmark
+    public int restoreOnly() {
+        world.enemyBullets.copyFrom(enemyTemplate);
+        world.playerBullets.copyFrom(playerTemplate);
+        return world.enemyBullets.count + world.playerBullets.count;
+    }
+
+    @Benchmark
+    public int enemyBulletPass() {
+        world.enemyBullets.copyFrom(enemyTemplate);
+        world.updateEnemyBullets();
+        return world.enemyBullets.count;
+    }
+
+    @Benchmark
+    public int playerBulletPass() {
+        world.playerBullets.copyFrom(playerTemplate);
+        world.updatePlayerBullets();
+        return world.playerBullets.count;
+    }
+}
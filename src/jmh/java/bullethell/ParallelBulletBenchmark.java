@@ -0,0 +1,91 @@
+package bullethell;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The enemy-bullet pass over a stress field of moving bullets, sequential
+// (threads = 1) and on 2..N worker threads; the speedup for a core count is
+// the threads=1 score divided by that row's score. The field is restored
+// from a template before every pass. Setup also checks that the parallel
+// pass leaves the world bit-for-bit identical to the sequential one.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelBulletBenchmark {
+    @Param({"100000", "1000000"})
+    int bullets;
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    private GameWorld world;
+    private BulletPool template;
+
+    @Setup
+    public void setUp() {
+        world = stressWorld(bullets, threads);
+        template = new BulletPool(bullets);
+        template.copyFrom(world.enemyBullets);
+        verifyMatchesSequential();
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.setParallelism(0);
+    }
+
+    private static GameWorld stressWorld(int bullets, int threads) {
+        GameWorld world = new GameWorld(600, 600, bullets, 1024);
+        world.reset(4);
+        world.player.health = Integer.MAX_VALUE / 2;
+        world.setParallelism(threads);
+        Random random = new Random(7);
+        for (int i = 0; i < bullets; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double speed = 0.5 + random.nextDouble() * 3;
+            world.enemyBullets.spawn(random.nextDouble() * 600, random.nextDouble() * 600,
+                    speed * Math.cos(angle), speed * Math.sin(angle));
+        }
+        world.rebuildBroadPhase();
+        return world;
+    }
+
+    private void verifyMatchesSequential() {
+        GameWorld sequential = stressWorld(bullets, 1);
+        GameWorld parallel = stressWorld(bullets, threads);
+        for (int t = 0; t < 50; t++) {
+            sequential.updateEnemyBullets();
+            parallel.updateEnemyBullets();
+        }
+        BulletPool a = sequential.enemyBullets, b = parallel.enemyBullets;
+        boolean same = a.count == b.count && sequential.player.health == parallel.player.health
+                && Arrays.equals(a.x, b.x) && Arrays.equals(a.y, b.y)
+                && Arrays.equals(a.dx, b.dx) && Arrays.equals(a.dy, b.dy);
+        parallel.setParallelism(0);
+        if (!same) throw new IllegalStateException("parallel bullet pass diverged from sequential with " + threads + " threads");
+    }
+
+    @Benchmark
+    public int enemyBulletPass() {
+        world.enemyBullets.copyFrom(template);
+        world.updateEnemyBullets();
+        return world.enemyBullets.count;
+    }
+}
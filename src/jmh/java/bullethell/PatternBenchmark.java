@@ -0,0 +1,68 @@
+package bullethell;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of one shot from each enemy type, i.e. emitting its whole pattern into
+// the bullet store, plus a dense layered pattern and an aimed fan. The store is
+// emptied whenever it gets close to full.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PatternBenchmark {
+    private static final BulletPattern DENSE = BulletPattern.compile("ring 64 3.0 + spiral 64 2.0 3 + spiral 32 1.5 3");
+    private static final BulletPattern FAN = BulletPattern.compile("fan 9 3.5 60");
+
+    private final BulletPool pool = new BulletPool(65536);
+    private final EnemyStore enemies = new EnemyStore();
+    private int frameCount;
+
+    @Setup
+    public void setUp() {
+        enemies.addNormal(280, 50, 3, Balance.DEFAULT);
+        enemies.addBoss(240, 50, Balance.DEFAULT);
+    }
+
+    @Benchmark
+    public int normalShot() {
+        if (pool.count > pool.capacity() - 64) pool.clear();
+        enemies.normals.fire(0, pool, ++frameCount, 300, 500);
+        return pool.count;
+    }
+
+    // Walks frameCount through both of the boss's alternating patterns
+    @Benchmark
+    public int bossShot() {
+        if (pool.count > pool.capacity() - 64) pool.clear();
+        enemies.bosses.fire(0, pool, ++frameCount, 300, 500);
+        return pool.count;
+    }
+
+    @Benchmark
+    public int denseLayeredShot() {
+        if (pool.count > pool.capacity() - 256) pool.clear();
+        DENSE.fire(pool, 300, 100, ++frameCount, 300, 500);
+        return pool.count;
+    }
+
+    @Benchmark
+    public int aimedFanShot() {
+        if (pool.count > pool.capacity() - 64) pool.clear();
+        ++frameCount;
+        FAN.fire(pool, 300, 100, frameCount, frameCount % 600, 500);
+        return pool.count;
+    }
+}
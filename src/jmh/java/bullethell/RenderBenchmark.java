@@ -0,0 +1,73 @@
+package bullethell;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One WorldRenderer frame drawn into an offscreen BufferedImage, using the
+// steady-state world from TickBenchmark for the given wave. In the larger arena
+// the built-in stage puts the wave on every 600x600 tile and the frame shows a
+// 600x600 view around the player, so the cost of capturing and culling the rest
+// is included.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+    @Param({"1", "4"})
+    int wave;
+
+    @Param({"600", "8000"})
+    int arena;
+
+    private static final int VIEW = 600;
+
+    private final WorldRenderer renderer = new WorldRenderer();
+    private GameWorld world;
+    private RenderFrame frame;
+    private BufferedImage image;
+    private Graphics2D g;
+
+    @Setup
+    public void setUp() {
+        world = new GameWorld(arena, arena);
+        world.reset(wave);
+        TickBenchmark.makeImmortal(world);
+        InputState input = new InputState();
+        for (int t = 0; t < 1200; t++) {
+            world.tick(input);
+        }
+        frame = new RenderFrame(world);
+        frame.viewWidth = Math.min(VIEW, arena);
+        frame.viewHeight = Math.min(VIEW, arena);
+        image = new BufferedImage(frame.viewWidth, frame.viewHeight, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        frame.capture(world);
+        renderer.draw(g, frame, 0.5);
+        return image;
+    }
+}
@@ -0,0 +1,56 @@
+package bullethell;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ns per full GameWorld.tick() with each wave held in steady state. The player
+// and the wave's enemies are given effectively unlimited health so the wave
+// never ends, and the world is run for a while before measuring so the bullet
+// field has filled up.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TickBenchmark {
+    @Param({"1", "2", "3", "4"})
+    int wave;
+
+    private GameWorld world;
+    private final InputState input = new InputState();
+
+    @Setup
+    public void setUp() {
+        world = new GameWorld(600, 600);
+        world.reset(wave);
+        makeImmortal(world);
+        for (int t = 0; t < 1200; t++) {
+            world.tick(input);
+        }
+    }
+
+    static void makeImmortal(GameWorld world) {
+        world.player.health = Integer.MAX_VALUE / 2;
+        for (EnemyArchetype enemies : world.enemies.archetypes) {
+            java.util.Arrays.fill(enemies.health, 0, enemies.count, Integer.MAX_VALUE / 2);
+        }
+    }
+
+    @Benchmark
+    public int tick() {
+        world.tick(input);
+        return world.enemyBullets.count;
+    }
+}
@@ -0,0 +1,5063 @@
+package bullethell;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class BulletHellGame extends JFrame {
+    public BulletHellGame() {
+        setTitle("Bullet Hell – Enhanced Gunegon Inspired");
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setResizable(false);
+        // Tick and frame rates can be overridden with -Dbullethell.tps / -Dbullethell.fps (0 = uncapped)
+        GamePanel panel = new GamePanel(Integer.getInteger("bullethell.tps", 60), Integer.getInteger("bullethell.fps", 60));
+        add(panel);
+        pack();
+        setLocationRelativeTo(null);
+        setVisible(true);
+        panel.start();
+    }
+
+    public static void main(String[] args) {
+        SwingUtilities.invokeLater(() -> new BulletHellGame());
+    }
+}
+
+// Drawn through a BufferStrategy by GameLoop's render thread, so this is a
+// heavyweight Canvas rather than a JPanel. Three threads touch the panel, each
+// with its own state:
+// - The EDT only queues key events, stamped with the tick they are for.
+// - The simulation thread owns the GameWorld and everything else below. It
+//   publishes a RenderFrame after every tick.
+// - The render thread draws the newest published frame and never reads the world.
+// The panel itself only adds the menu, pause and end screens around the simulation.
+class GamePanel extends Canvas implements KeyListener {
+    private GameLoop loop;
+    private final int ticksPerSecond, framesPerSecond;
+    final InputQueue keys = new InputQueue(1024);
+    private long nextTick; // simulation thread only
+
+    // Game state constants; the playing/ended states are shared with GameWorld
+    private static final int STATE_MENU = 0;
+    private static final int STATE_PLAYING = GameWorld.STATE_PLAYING;
+    private static final int STATE_GAME_OVER = GameWorld.STATE_GAME_OVER;
+    private static final int STATE_VICTORY = GameWorld.STATE_VICTORY;
+
+    private int gameState = STATE_MENU;
+    private boolean paused = false;
+
+    private final GameWorld world = GameWorld.configured();
+    // The screen shows at most VIEW_SIZE square of the arena and scrolls to follow the player
+    private static final int VIEW_SIZE = 600;
+    private final int viewWidth = Math.min(VIEW_SIZE, world.width), viewHeight = Math.min(VIEW_SIZE, world.height);
+    final InputState input = new InputState();
+    private final WorldRenderer renderer = new WorldRenderer();
+    // Bytes allocated by the most recent world tick; zero once the game reaches steady state
+    private final AllocationCounter tickAllocations = new AllocationCounter();
+    private final Starfield starfield = new Starfield(viewWidth, viewHeight);
+    private final FrameExchange frames = new FrameExchange(world);
+    // The current run, saved when it ends if -Dbullethell.record=<file> is set.
+    // Rewinding or loading a save breaks the run, so recording stops there.
+    private InputLog recording;
+    // Up to 5 seconds of history at 60 tps; BACKSPACE goes back 2 seconds. F5/F9 quick save and load.
+    private static final int REWIND_STEPS = 120;
+    private final RewindBuffer rewind = new RewindBuffer(300, 32 << 20);
+    private final SaveSlots saves = new SaveSlots(new java.io.File(System.getProperty("bullethell.saves", "saves")));
+    // Phase timings: F3 toggles the overlay; -Dbullethell.metrics=<file> streams every tick as CSV
+    private final PhaseProfiler profiler = world.profiler;
+    private boolean showProfiler;
+    private MetricsLog metrics;
+    private String[] profilerLines = new String[0];
+    private int profilerTicks;
+
+    // Render thread only: frame times for the overlay, and the last one for the metrics log
+    private final LatencyHistogram renderTimes = new LatencyHistogram();
+    private String renderLine = "";
+    private int renderedFrames;
+    private volatile long lastRenderNanos;
+
+    // Key-to-present latency. The simulation thread tags each frame with the
+    // time of the earliest key event it reflects that hasn't been measured yet.
+    // The render thread measures from that time to when the frame is shown.
+    private long unmeasuredInputNanos;          // simulation thread
+    private volatile long measuredInputNanos;   // written by the render thread
+    private final LatencyHistogram inputLatency = new LatencyHistogram(); // render thread only
+    private final java.util.concurrent.atomic.AtomicBoolean inputLatencyReset = new java.util.concurrent.atomic.AtomicBoolean();
+    private String inputLine = "";
+    private final java.util.concurrent.atomic.AtomicLong unloggedInputLatency = new java.util.concurrent.atomic.AtomicLong();
+
+    // Sheds cosmetic load when ticks or frames no longer fit in their periods;
+    // -Dbullethell.quality=<0-3> pins a level instead
+    private final QualityGovernor governor;
+
+    // Plays offscreen while the menu is up so the hot paths are compiled before
+    // play starts. -Dbullethell.warmup=<ticks> sets its length (0 turns it off).
+    // -Dbullethell.exitAfterWarmup=true quits once it is done, for a CDS training run.
+    // Set before the game loop starts and never reassigned.
+    private WarmUp warmUp;
+
+    // Co-op with a peer: -Dbullethell.netplay=<1|2>:<localPort>:<peerPort>[:<peerHost>].
+    // Both sides need the same -Dbullethell.seed and -Dbullethell.endless, and
+    // restart together. Rewind, saves, pause and recording are off.
+    private NetLink netLink;
+    private int netSlot;
+    private RollbackSession netplay;
+    private int netGames;
+    private boolean desyncReported;
+
+    public GamePanel(int ticksPerSecond, int framesPerSecond) {
+        this.ticksPerSecond = ticksPerSecond;
+        this.framesPerSecond = framesPerSecond;
+        setPreferredSize(new Dimension(viewWidth, viewHeight));
+        frames.setView(viewWidth, viewHeight);
+        setBackground(Color.BLACK);
+        setFocusable(true);
+        setIgnoreRepaint(true);
+        addKeyListener(this);
+        world.stage = StageScript.configured(world.width, world.height);
+        openMetrics();
+        openNetplay();
+        initGame();
+        governor = new QualityGovernor(1_000_000_000L / ticksPerSecond,
+                framesPerSecond > 0 ? 1_000_000_000L / framesPerSecond : 0, Integer.getInteger("bullethell.quality", -1));
+        governor.apply(world);
+    }
+
+    private void openNetplay() {
+        String spec = System.getProperty("bullethell.netplay");
+        if (spec == null) return;
+        String[] parts = spec.split(":");
+        try {
+            netSlot = Integer.parseInt(parts[0]) - 1;
+            netLink = new NetLink(Integer.parseInt(parts[1]), parts.length > 3 ? parts[3] : "127.0.0.1",
+                    Integer.parseInt(parts[2]), 0, 0, 0);
+            world.coop = true;
+        } catch (java.io.IOException | RuntimeException ex) {
+            System.err.println("Could not start netplay " + spec + ": " + ex);
+        }
+    }
+
+    private void openMetrics() {
+        String path = System.getProperty("bullethell.metrics");
+        if (path == null) return;
+        try {
+            metrics = new MetricsLog(new java.io.File(path));
+            profiler.enabled = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeMetrics));
+        } catch (java.io.IOException ex) {
+            System.err.println("Could not open metrics log " + path + ": " + ex);
+        }
+    }
+
+    private synchronized void writeMetrics() {
+        if (metrics == null) return;
+        try {
+            metrics.write(world, profiler, tickAllocations.lastBytes, unloggedInputLatency.getAndSet(0));
+            if (gameState != STATE_PLAYING) metrics.flush();
+        } catch (java.io.IOException ex) {
+            System.err.println("Metrics log failed: " + ex);
+            closeMetrics();
+        }
+    }
+
+    private synchronized void closeMetrics() {
+        if (metrics == null) return;
+        try {
+            metrics.close();
+        } catch (java.io.IOException ignored) {
+        }
+        metrics = null;
+        profiler.enabled = showProfiler;
+    }
+
+    // Must be called once the panel is displayable
+    public void start() {
+        createBufferStrategy(2);
+        requestFocus();
+        // Before the loop starts, so its threads see warmUp (and everything else set up here)
+        startWarmUp();
+        loop = new GameLoop(this, ticksPerSecond, framesPerSecond);
+        loop.start();
+    }
+
+    private void startWarmUp() {
+        int ticks = Integer.getInteger("bullethell.warmup", WarmUp.DEFAULT_TICKS);
+        if (ticks <= 0) return;
+        warmUp = new WarmUp(ticks);
+        Thread thread = new Thread(() -> {
+            warmUp.run();
+            if (Boolean.getBoolean("bullethell.exitAfterWarmup")) {
+                System.out.printf("warm-up: %d ticks in %d ms%n", warmUp.ticksRun, warmUp.elapsedNanos / 1_000_000);
+                System.exit(0);
+            }
+        }, "warm-up");
+        thread.setDaemon(true);
+        // The menu must stay responsive; on one core the warm-up only gets what it leaves
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void initGame() {
+        world.reset(1, netLink != null ? Long.getLong("bullethell.seed", 1) : System.nanoTime());
+        netplay = null;
+        recording = InputLog.startRecording(world);
+        rewind.clear();
+        rewind.push(world);
+        input.clear();
+        starfield.reset();
+        paused = false;
+    }
+
+    // Leaves the menu; the recording and rewind history restart so they carry the mode
+    private void startPlaying(boolean endless) {
+        gameState = STATE_PLAYING;
+        // Whatever the warm-up has compiled by now is kept; it must not compete with play
+        if (warmUp != null) warmUp.stop();
+        if (netLink != null) {
+            world.endless = Boolean.getBoolean("bullethell.endless");
+            recording = null;
+            netplay = new RollbackSession(world, netSlot, netLink, ++netGames);
+            desyncReported = false;
+            return;
+        }
+        world.endless = endless;
+        recording = InputLog.startRecording(world);
+        rewind.clear();
+        rewind.push(world);
+    }
+
+    // Runs one tick, through the rollback session in netplay; false while
+    // netplay is stalled waiting for the peer
+    private boolean advanceWorld() {
+        if (netplay == null) {
+            world.tick(input);
+            return true;
+        }
+        try {
+            boolean advanced = netplay.advance(input);
+            if (netplay.desyncTick >= 0 && !desyncReported) {
+                desyncReported = true;
+                System.err.println("Netplay desync: state differs from the peer's at tick " + netplay.desyncTick);
+            }
+            return advanced;
+        } catch (java.io.IOException ex) {
+            System.err.println("Netplay failed: " + ex);
+            return false;
+        }
+    }
+
+    // One fixed simulation step, run on the simulation thread
+    void tick() {
+        long tick = nextTick;
+        if (unmeasuredInputNanos != 0 && unmeasuredInputNanos <= measuredInputNanos) unmeasuredInputNanos = 0;
+        long event;
+        keys.startTick(tick);
+        while ((event = keys.poll()) >= 0) {
+            if (unmeasuredInputNanos == 0) unmeasuredInputNanos = keys.polledNanos();
+            if (InputQueue.pressed(event)) {
+                handleKeyPressed(InputQueue.keyCode(event));
+            } else {
+                handleKeyReleased(InputQueue.keyCode(event));
+            }
+        }
+        if (gameState == STATE_PLAYING && !paused) {
+            long t = profiler.begin();
+            starfield.update();
+            profiler.lap(PhaseProfiler.STARS, t);
+            tickAllocations.begin();
+            long tickStart = System.nanoTime();
+            boolean advanced = advanceWorld();
+            long tickNanos = System.nanoTime() - tickStart;
+            tickAllocations.end();
+            if (governor.sample(tickNanos, lastRenderNanos)) governor.apply(world);
+            // A stalled netplay tick keeps its one-shot inputs for the next attempt
+            if (advanced) {
+                if (recording != null) recording.record(input, world.checksum());
+                if (netplay == null) rewind.push(world);
+                input.fire = false;
+                input.bomb = false;
+            }
+            gameState = world.state;
+            profiler.last[PhaseProfiler.RENDER] = lastRenderNanos;
+            writeMetrics();
+            if (gameState != STATE_PLAYING) saveRecording();
+        }
+        // The overlay text is rebuilt twice a second from the histograms, which then start over
+        if (showProfiler && ++profilerTicks >= 30) {
+            profilerTicks = 0;
+            profilerLines = profiler.describe(world, tickAllocations.lastBytes);
+            profilerLines[profilerLines.length - 1] += ", quality level " + governor.level;
+            if (netplay != null) {
+                profilerLines[profilerLines.length - 1] += String.format(", %d rollbacks, %d stalls",
+                        netplay.rollbacks, netplay.stalls);
+            }
+            profiler.reset();
+        }
+        publishFrame(tick);
+        nextTick = tick + 1;
+    }
+
+    private void publishFrame(long tick) {
+        RenderFrame frame = frames.back();
+        if (gameState == STATE_PLAYING) frame.capture(world);
+        // The second netplay peer's camera follows its own ship
+        frame.followPartner = netplay != null && netSlot == 1;
+        frame.tick = tick;
+        frame.gameState = gameState;
+        frame.paused = paused;
+        frame.overlay = showProfiler ? profilerLines : null;
+        frame.inputNanos = unmeasuredInputNanos;
+        frame.starLayers = governor.starLayers();
+        starfield.copyOffsets(frame.starOffsets);
+        frame.publishedNanos = System.nanoTime();
+        frames.publish();
+    }
+
+    private void saveRecording() {
+        String path = System.getProperty("bullethell.record");
+        if (path == null || recording == null) return;
+        try {
+            recording.write(new java.io.File(path));
+        } catch (java.io.IOException ex) {
+            System.err.println("Could not save replay to " + path + ": " + ex);
+        }
+    }
+
+    // Draws the newest published frame on the render thread, interpolated by how
+    // far the clock has moved into the next tick since the frame was published
+    void renderFrame(long tickNanos) {
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy == null) return;
+        RenderFrame frame = frames.latest();
+        long start = System.nanoTime();
+        double alpha = 1.0;
+        if (frame.gameState == STATE_PLAYING && !frame.paused) {
+            alpha = Math.min(1.0, (double) (start - frame.publishedNanos) / tickNanos);
+        }
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    render(g, frame, alpha);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+        long shown = System.nanoTime();
+        lastRenderNanos = shown - start;
+        renderTimes.record(shown - start);
+        // Opening the overlay asks for a fresh histogram; it is only touched on this thread
+        if (inputLatencyReset.getAndSet(false)) inputLatency.reset();
+        // Only the first frame shown with a given input counts
+        if (frame.inputNanos != 0 && frame.inputNanos > measuredInputNanos) {
+            measuredInputNanos = frame.inputNanos;
+            inputLatency.record(shown - frame.inputNanos);
+            unloggedInputLatency.set(shown - frame.inputNanos);
+        }
+    }
+
+    private void render(Graphics g, RenderFrame frame, double alpha) {
+        int gameState = frame.gameState;
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+
+        // Draw the starfield background
+        starfield.draw(g, frame.starOffsets, frame.starLayers, alpha, frame.cameraX(alpha), frame.cameraY(alpha));
+
+        if (gameState == STATE_MENU) {
+            g.setColor(Color.YELLOW);
+            g.setFont(RenderResources.TITLE_FONT);
+            String title = "Bullet Hell – Enhanced Gunegon";
+            FontMetrics fm = g.getFontMetrics();
+            int titleWidth = fm.stringWidth(title);
+            g.drawString(title, (getWidth()-titleWidth)/2, getHeight()/2 - 50);
+            g.setFont(RenderResources.MESSAGE_FONT);
+            String msg = "Press ENTER to Start";
+            int msgWidth = g.getFontMetrics().stringWidth(msg);
+            g.drawString(msg, (getWidth()-msgWidth)/2, getHeight()/2);
+            String endless = "Press E for Endless Mode";
+            int endlessWidth = g.getFontMetrics().stringWidth(endless);
+            g.drawString(endless, (getWidth()-endlessWidth)/2, getHeight()/2 + 40);
+        } else if (gameState == STATE_PLAYING) {
+            renderer.draw(g, frame, alpha);
+            if (frame.paused) {
+                g.setFont(RenderResources.TITLE_FONT);
+                String pauseMsg = "PAUSED";
+                int pauseWidth = g.getFontMetrics().stringWidth(pauseMsg);
+                g.drawString(pauseMsg, (getWidth()-pauseWidth)/2, getHeight()/2);
+            }
+        } else if (gameState == STATE_GAME_OVER) {
+            g.setColor(Color.RED);
+            g.setFont(RenderResources.BANNER_FONT);
+            String msg = "GAME OVER";
+            FontMetrics fm = g.getFontMetrics();
+            int msgWidth = fm.stringWidth(msg);
+            g.drawString(msg, (getWidth()-msgWidth)/2, getHeight()/2);
+            g.setFont(RenderResources.MESSAGE_FONT);
+            String restart = "Press R to Restart";
+            int restartWidth = g.getFontMetrics().stringWidth(restart);
+            g.drawString(restart, (getWidth()-restartWidth)/2, getHeight()/2 + 40);
+        } else if (gameState == STATE_VICTORY) {
+            g.setColor(Color.YELLOW);
+            g.setFont(RenderResources.BANNER_FONT);
+            String msg = "VICTORY!";
+            FontMetrics fm = g.getFontMetrics();
+            int msgWidth = fm.stringWidth(msg);
+            g.drawString(msg, (getWidth()-msgWidth)/2, getHeight()/2);
+            g.setFont(RenderResources.MESSAGE_FONT);
+            String restart = "Press R to Restart";
+            int restartWidth = g.getFontMetrics().stringWidth(restart);
+            g.drawString(restart, (getWidth()-restartWidth)/2, getHeight()/2 + 40);
+        }
+        if (frame.overlay != null) drawProfiler(g, frame.overlay);
+    }
+
+    // Tick phases come from the simulation thread; the render line is kept here the same way
+    private void drawProfiler(Graphics g, String[] lines) {
+        if (++renderedFrames >= 30) {
+            renderedFrames = 0;
+            renderLine = PhaseProfiler.describe(PhaseProfiler.NAMES[PhaseProfiler.RENDER], renderTimes);
+            renderTimes.reset();
+            // Key presses are rare, so this one covers everything since the overlay was opened
+            inputLine = PhaseProfiler.describe("key-to-present", inputLatency);
+        }
+        g.setFont(RenderResources.DEBUG_FONT);
+        int y = getHeight() - 14 * (lines.length + 2);
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(0, y - 12, getWidth(), getHeight() - y + 12);
+        g.setColor(Color.GREEN);
+        for (String line : lines) {
+            g.drawString(line, 6, y);
+            y += 14;
+        }
+        g.drawString(renderLine, 6, y);
+        g.drawString(inputLine, 6, y + 14);
+    }
+
+    // The queue stamps each key event with the first tick that has not yet
+    // started, and that tick applies it at its start, before anything moves.
+    // A tick is the smallest step the simulation and replays know, so the start
+    // of the stamped tick is the event's sub-tick position.
+    @Override
+    public void keyPressed(KeyEvent e) {
+        if (keys.offer(e.getKeyCode(), true, eventNanos(e)) < 0) System.err.println("Input queue full, key dropped");
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        if (keys.offer(e.getKeyCode(), false, eventNanos(e)) < 0) System.err.println("Input queue full, key dropped");
+    }
+
+    // The event's time on the nanoTime clock. getWhen() is when the OS reported
+    // the key, to the millisecond, so time spent waiting in the EDT queue counts too.
+    private static long eventNanos(KeyEvent e) {
+        long now = System.nanoTime();
+        long queuedMillis = System.currentTimeMillis() - e.getWhen();
+        return queuedMillis > 0 && queuedMillis < 1000 ? now - queuedMillis * 1_000_000 : now;
+    }
+
+    private void handleKeyPressed(int key) {
+        if (key == KeyEvent.VK_F3) {
+            showProfiler = !showProfiler;
+            if (showProfiler) inputLatencyReset.set(true);
+            profiler.enabled = showProfiler || metrics != null;
+            profiler.reset();
+        }
+        if (gameState == STATE_MENU) {
+            if (key == KeyEvent.VK_ENTER) startPlaying(false);
+            if (key == KeyEvent.VK_E) startPlaying(true);
+        } else if (gameState == STATE_PLAYING) {
+            if (key == KeyEvent.VK_LEFT) input.left = true;
+            if (key == KeyEvent.VK_RIGHT) input.right = true;
+            if (key == KeyEvent.VK_UP) input.up = true;
+            if (key == KeyEvent.VK_DOWN) input.down = true;
+            if (key == KeyEvent.VK_SHIFT) input.focus = true;
+            // Allow manual fire in addition to auto-fire
+            if (key == KeyEvent.VK_SPACE) input.fire = true;
+            // Use bomb to clear enemy bullets
+            if (key == KeyEvent.VK_X) input.bomb = true;
+            if (key == KeyEvent.VK_P && netplay == null) {
+                paused = !paused;
+            }
+            if (key == KeyEvent.VK_F5 && netplay == null) {
+                try {
+                    saves.save(1, world);
+                } catch (java.io.IOException ex) {
+                    System.err.println("Could not save: " + ex);
+                }
+            }
+            if (key == KeyEvent.VK_F9 && netplay == null) {
+                try {
+                    if (saves.load(1, world)) restored();
+                } catch (java.io.IOException | IllegalArgumentException ex) {
+                    System.err.println("Could not load: " + ex);
+                }
+            }
+        }
+        if ((gameState == STATE_PLAYING || gameState == STATE_GAME_OVER) && key == KeyEvent.VK_BACK_SPACE && netplay == null) {
+            if (rewind.rewind(REWIND_STEPS, world) > 0) restored();
+        }
+        if (gameState == STATE_GAME_OVER || gameState == STATE_VICTORY) {
+            if (key == KeyEvent.VK_R) {
+                initGame();
+                gameState = STATE_MENU;
+            }
+        }
+    }
+
+    // After the world was replaced by a rewind or a loaded save
+    private void restored() {
+        gameState = world.state;
+        recording = null;
+    }
+
+    private void handleKeyReleased(int key) {
+        if (gameState == STATE_PLAYING) {
+            if (key == KeyEvent.VK_LEFT) input.left = false;
+            if (key == KeyEvent.VK_RIGHT) input.right = false;
+            if (key == KeyEvent.VK_UP) input.up = false;
+            if (key == KeyEvent.VK_DOWN) input.down = false;
+            if (key == KeyEvent.VK_SHIFT) input.focus = false;
+        }
+    }
+
+    @Override
+    public void keyTyped(KeyEvent e) {}
+}
+
+// --------------------
+// InputState Class
+// --------------------
+// Everything the player can do in one tick. Directions and focus are held
+// states; fire and bomb are one-shot actions the caller clears after the tick.
+class InputState {
+    boolean left, right, up, down, focus;
+    boolean fire, bomb;
+
+    public void clear() {
+        left = right = up = down = focus = false;
+        fire = bomb = false;
+    }
+}
+
+// --------------------
+// GameWorld Class
+// --------------------
+// The whole simulation: entities, waves, score and rules. It has no Swing or
+// display dependencies, so it can be stepped by the on-screen GameLoop or by
+// HeadlessRunner as fast as the CPU allows.
+class GameWorld {
+    static final int STATE_PLAYING = 1;
+    static final int STATE_GAME_OVER = 3;
+    static final int STATE_VICTORY = 4;
+
+    final int width, height;
+    int state;
+
+    // Game objects. The partner is the second player in co-op, null when playing solo.
+    Player player;
+    Player partner;
+    final EnemyStore enemies = new EnemyStore();
+    final BulletPool enemyBullets;
+    final BulletPool playerBullets;
+    final PowerUpPool powerUps = new PowerUpPool(256);
+    final ParticleSystem particles = new ParticleSystem(4096);
+    // Gameplay randomness, seeded on reset. Particles use their own stream, so
+    // cosmetic changes never shift the gameplay rolls.
+    final GameRandom random = new GameRandom(0);
+    long seed;
+    // Times each phase of tick() while enabled
+    final PhaseProfiler profiler = new PhaseProfiler();
+    // Broad-phase shared by every collision pass; id 0 is the player, 1 the partner, enemy g is id g + 2
+    private final SpatialGrid grid = new SpatialGrid();
+    private static final int PLAYER_ID = 0, PARTNER_ID = 1, ENEMY_ID = 2;
+
+    // Enemy-bullet pass: per-bullet outcome, plus optional workers for huge bullet counts
+    private static final byte FATE_KEEP = 0, FATE_CULL = 1, FATE_HIT = 2, FATE_HIT_PARTNER = 3;
+    private static final int PARALLEL_CHUNK = 8192;
+    private byte[] bulletFate = new byte[0];
+    private java.util.concurrent.ForkJoinPool bulletWorkers;
+
+    // Enemy stats; swapped by the batch simulator when tuning
+    Balance balance = Balance.DEFAULT;
+    // Cheaper updates far from the players, for arenas much larger than the screen
+    final SimulationLod lod = new SimulationLod();
+    // The scripted waves, and the current wave's events still to come. Events are
+    // due relative to waveStartFrame; any due by frameCount have already fired.
+    StageScript stage;
+    int waveStartFrame;
+    private final StageSchedule schedule = new StageSchedule();
+    // Endless mode: waves keep coming after the boss, larger and denser each time
+    boolean endless;
+    // Two-player co-op: takes effect on the next reset
+    boolean coop;
+    // Cosmetic only, never part of the checksum: the players' exhaust trails, and
+    // particles as a whole (off while netplay re-simulates ticks it already showed)
+    boolean trails = true;
+    boolean effects = true;
+
+    // Frames covered by the current step(), and the held input reused by its later frames
+    private int stepFrames = 1;
+    private final InputState held = new InputState(), partnerHeld = new InputState();
+
+    // Game variables
+    int score = 0;
+    int wave = 1;
+    int frameCount = 0;
+    int damageTaken = 0;
+
+    public GameWorld(int width, int height) {
+        this(width, height, 65536, 1024);
+    }
+
+    // A world sized by -Dbullethell.arena=<width>x<height>, 600x600 by default.
+    // Both netplay peers must use the same size. Stage positions are 16-bit, which
+    // bounds the size.
+    static GameWorld configured() {
+        String spec = System.getProperty("bullethell.arena", "600x600");
+        int x = spec.indexOf('x');
+        try {
+            int w = Integer.parseInt(spec.substring(0, x)), h = Integer.parseInt(spec.substring(x + 1));
+            if (w >= 200 && h >= 200 && w <= Short.MAX_VALUE && h <= Short.MAX_VALUE) return new GameWorld(w, h);
+        } catch (RuntimeException ignored) {
+        }
+        System.err.println("Bad arena size " + spec + ", using 600x600");
+        return new GameWorld(600, 600);
+    }
+
+    public GameWorld(int width, int height, int enemyBulletCapacity, int playerBulletCapacity) {
+        this.width = width;
+        this.height = height;
+        this.enemyBullets = new BulletPool(enemyBulletCapacity);
+        this.playerBullets = new BulletPool(playerBulletCapacity);
+        this.stage = StageScript.forArena(width, height);
+        reset();
+    }
+
+    public void reset() {
+        reset(1);
+    }
+
+    public void reset(int startWave) {
+        reset(startWave, seed);
+    }
+
+    // Starts a fresh game at the given wave (1-4, or any wave in endless mode);
+    // the mode, the seed and the inputs fully determine the run
+    public void reset(int startWave, long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+        particles.setSeed(~seed);
+        // Initialize game objects and variables
+        if (coop) {
+            player = new Player(width / 3, height - 100);
+            partner = new Player(width * 2 / 3, height - 100);
+        } else {
+            player = new Player(width / 2, height - 100);
+            partner = null;
+        }
+        enemies.clear();
+        enemyBullets.clear();
+        playerBullets.clear();
+        powerUps.clear();
+        particles.clear();
+        score = 0;
+        wave = startWave;
+        frameCount = 0;
+        damageTaken = 0;
+        state = STATE_PLAYING;
+        spawnWave(wave);
+    }
+
+    // Starts a wave. Scripted waves queue their events and fire the ones due at
+    // once. Endless waves past the end of the stage are generated, repeating the
+    // default stage's cycle: every 4th wave is a tougher, faster firing boss with
+    // an escort, the others ever more normal enemies, in rows.
+    private void spawnWave(int wave) {
+        enemies.clear();
+        enemyBullets.clear();
+        waveStartFrame = frameCount;
+        scheduleEvents(frameCount - 1);
+        if (wave <= stage.waves()) {
+            fireDueEvents();
+        } else if (wave % 4 == 0) {
+            // The first shot still comes after the base delay; later ones come faster
+            int cycle = wave / 4;
+            int boss = enemies.addBoss(width / 3, 50, balance);
+            enemies.bosses.health[boss] = balance.bossHealth * cycle;
+            enemies.bosses.shootDelay[boss] = Math.max(balance.bossShootDelay - 5 * (cycle - 1), 5);
+            spawnRows(wave, wave / 2, 150);
+        } else {
+            spawnRows(wave, wave + 2, 50);
+        }
+    }
+
+    // Queues the current wave's events that are due after the given frame
+    void scheduleEvents(int afterFrame) {
+        schedule.clear();
+        if (wave > stage.waves()) return;
+        for (int e = stage.firstEvent(wave), end = e + stage.eventCount(wave); e < end; e++) {
+            int due = waveStartFrame + stage.tick(e);
+            if (due > afterFrame) schedule.push(due, e);
+        }
+    }
+
+    private void fireDueEvents() {
+        while (!schedule.isEmpty() && schedule.nextFrame() <= frameCount) {
+            int e = schedule.pop();
+            EnemyArchetype a = stage.kind(e) == StageScript.BOSS ? enemies.bosses : enemies.normals;
+            int pattern = stage.pattern(e), speed = stage.speed(e);
+            if (stage.type(e) == StageScript.SPAWN) {
+                int x = stage.x(e), y = stage.y(e);
+                int i = a == enemies.bosses ? enemies.addBoss(x, y, balance) : enemies.addNormal(x, y, wave, balance);
+                if (pattern >= 0) a.patterns[i] = stage.patterns(pattern);
+                if (speed >= 0) a.speed[i] = speed;
+                if (stage.health(e) > 0) a.health[i] = stage.health(e);
+            } else if (stage.type(e) == StageScript.PATTERN) {
+                java.util.Arrays.fill(a.patterns, 0, a.count, stage.patterns(pattern));
+            } else {
+                java.util.Arrays.fill(a.speed, 0, a.count, speed);
+            }
+        }
+    }
+
+    // Endless waves: up to 8 normal enemies a row, rows 50 pixels apart from y = top.
+    // Rows stop at the middle of the arena so the players keep the lower half to
+    // themselves. Enemies that don't fit are folded into those that do, which get
+    // their share of the missing health and fire faster to match, down to the
+    // usual minimum delay.
+    private void spawnRows(int wave, int numEnemies, int top) {
+        int perRow = Math.min(numEnemies, 8);
+        int rows = Math.max(1, (height / 2 - top) / 50);
+        int spawned = Math.min(numEnemies, perRow * rows);
+        int spacing = width / (perRow + 1);
+        EnemyArchetype a = enemies.normals;
+        for (int i = 0; i < spawned; i++) {
+            int x = (i % perRow + 1) * spacing - 20;
+            int y = top + (i / perRow) * 50;
+            int k = enemies.addNormal(x, y, wave, balance);
+            if (spawned < numEnemies) {
+                a.health[k] = (int) Math.min(Integer.MAX_VALUE, (long) a.health[k] * numEnemies / spawned);
+                a.shootDelay[k] = a.shootTimer[k] = Math.max(a.shootDelay[k] * spawned / numEnemies, balance.normalMinShootDelay);
+            }
+        }
+    }
+
+    public void tick(InputState input) {
+        step(input, null, 1);
+    }
+
+    // One co-op tick; partnerInput is ignored when playing solo
+    public void tick(InputState input, InputState partnerInput) {
+        step(input, partnerInput, 1);
+    }
+
+    public void step(InputState input, int frames) {
+        step(input, null, frames);
+    }
+
+    // Advances `frames` frames in one step, for cheaper coarse-step simulation.
+    // The player and enemies still run frame by frame, so bullets are fired at
+    // the right times, but bullets, power-ups and particles then advance all the
+    // frames in a single pass. The collision tests are swept over the whole
+    // step, so nothing tunnels through a hitbox. One-shot inputs (fire, bomb)
+    // apply to the first frame only. step(input, 1) is an ordinary tick.
+    public void step(InputState input, InputState partnerInput, int frames) {
+        if (state != STATE_PLAYING) return;
+        long start = profiler.begin(), t = start;
+        stepFrames = frames;
+        // prevX/prevY hold the step's start positions, for interpolation and swept tests
+        player.savePosition();
+        if (partner != null) partner.savePosition();
+        enemies.savePositions();
+        for (int f = 0; f < frames; f++) {
+            frameCount++;
+            score++;
+            fireDueEvents();
+            int enemyShots = enemyBullets.count, playerShots = playerBullets.count;
+            updatePlayer(player, f == 0 ? input : heldInput(input, held));
+            if (partner != null && partnerInput != null) {
+                updatePlayer(partner, f == 0 ? partnerInput : heldInput(partnerInput, partnerHeld));
+            }
+            t = profiler.lap(PhaseProfiler.PLAYER, t);
+            updateEnemies();
+            t = profiler.lap(PhaseProfiler.ENEMIES, t);
+            // Bullets fired on frame f should only move frames - f times in the passes below
+            enemyBullets.moveBack(enemyShots, f);
+            playerBullets.moveBack(playerShots, f);
+        }
+        rebuildBroadPhase();
+        t = profiler.lap(PhaseProfiler.BROAD_PHASE, t);
+        updateEnemyBullets();
+        t = profiler.lap(PhaseProfiler.ENEMY_BULLETS, t);
+        updatePlayerBullets();
+        t = profiler.lap(PhaseProfiler.PLAYER_BULLETS, t);
+        updatePowerUps();
+        t = profiler.lap(PhaseProfiler.POWER_UPS, t);
+        for (int f = 0; f < frames; f++) {
+            updateParticles();
+        }
+        t = profiler.lap(PhaseProfiler.PARTICLES, t);
+        for (int f = 0; f < frames; f++) {
+            updateFireRateBoost();
+        }
+        advanceWave();
+        profiler.lap(PhaseProfiler.WAVE, t);
+        profiler.lap(PhaseProfiler.TICK, start);
+    }
+
+    // The held part of input, for the frames of a step after the first
+    private static InputState heldInput(InputState input, InputState held) {
+        held.left = input.left;
+        held.right = input.right;
+        held.up = input.up;
+        held.down = input.down;
+        held.focus = input.focus;
+        return held;
+    }
+
+    // Hash of the gameplay state after a tick (particles are left out); replays
+    // compare it tick by tick to detect desyncs
+    public long checksum() {
+        long h = mix(0, frameCount);
+        h = mix(h, score);
+        h = mix(h, wave);
+        h = mix(h, state);
+        h = mix(h, random.getState());
+        h = mix(h, player.x);
+        h = mix(h, player.y);
+        h = mix(h, player.health);
+        h = mix(h, player.bombs);
+        h = mix(h, player.shootTimer);
+        h = mix(h, player.fireRateBoostTimer);
+        if (partner != null) {
+            h = mix(h, partner.x);
+            h = mix(h, partner.y);
+            h = mix(h, partner.health);
+            h = mix(h, partner.bombs);
+            h = mix(h, partner.shootTimer);
+            h = mix(h, partner.fireRateBoostTimer);
+        }
+        for (EnemyArchetype a : enemies.archetypes) {
+            for (int i = 0; i < a.count; i++) {
+                h = mix(h, a.x[i]);
+                h = mix(h, a.y[i]);
+                h = mix(h, a.health[i]);
+                h = mix(h, a.shootTimer[i]);
+            }
+        }
+        h = mixBullets(h, enemyBullets);
+        h = mixBullets(h, playerBullets);
+        for (int k = 0; k < powerUps.count; k++) {
+            h = mix(h, powerUps.x[k]);
+            h = mix(h, powerUps.y[k]);
+            h = mix(h, powerUps.type[k]);
+        }
+        return h;
+    }
+
+    private static long mixBullets(long h, BulletPool b) {
+        h = mix(h, b.count);
+        for (int i = 0; i < b.count; i++) {
+            h = mix(h, Double.doubleToRawLongBits(b.x[i]));
+            h = mix(h, Double.doubleToRawLongBits(b.y[i]));
+        }
+        return h;
+    }
+
+    private static long mix(long h, long v) {
+        h = (h ^ v) * 0x100000001B3L;
+        return h ^ (h >>> 29);
+    }
+
+    // A player who is down (only possible in co-op) sits out the rest of the game
+    void updatePlayer(Player player, InputState input) {
+        if (player.health <= 0) return;
+        // Apply this tick's input
+        player.left = input.left;
+        player.right = input.right;
+        player.up = input.up;
+        player.down = input.down;
+        player.focusMode = input.focus;
+        if (input.fire) {
+            playerBullets.spawn(player.x + player.width/2 - 4, player.y, 0, -10);
+        }
+        if (input.bomb && player.bombs > 0) {
+            enemyBullets.clear();
+            player.bombs--;
+        }
+
+        // Update player movement and auto-fire
+        player.update(width, height);
+        if (player.canShoot()) {
+            playerBullets.spawn(player.x + player.width/2 - 4, player.y, 0, -10);
+            player.resetShootTimer();
+        }
+        player.decrementShootTimer();
+    }
+
+    void updateEnemies() {
+        // Move enemies and have them shoot, aiming at the player or, once they are down, the partner
+        Player target = player.health <= 0 && partner != null ? partner : player;
+        lod.update(this);
+        enemies.update(width, enemyBullets, frameCount, target.x + target.width / 2.0, target.y + target.height / 2.0, lod);
+    }
+
+    void rebuildBroadPhase() {
+        // Rebuild the broad-phase with this step's collision targets, each binned
+        // by the box it swept from its start position to where it is now
+        grid.reset(width, height);
+        insertSwept(PLAYER_ID, player.prevX, player.prevY, player.x, player.y, player.width, player.height);
+        if (partner != null) {
+            insertSwept(PARTNER_ID, partner.prevX, partner.prevY, partner.x, partner.y, partner.width, partner.height);
+        }
+        int id = ENEMY_ID;
+        for (EnemyArchetype a : enemies.archetypes) {
+            for (int i = 0; i < a.count; i++) {
+                insertSwept(id++, a.prevX[i], a.prevY[i], a.x[i], a.y[i], a.width, a.height);
+            }
+        }
+    }
+
+    private void insertSwept(int id, int x0, int y0, int x1, int y1, int w, int h) {
+        int x = Math.min(x0, x1), y = Math.min(y0, y1);
+        grid.insert(id, x, y, Math.max(x0, x1) - x + w, Math.max(y0, y1) - y + h);
+    }
+
+    // Broad-phase probe for a bullet's whole path over the step (it has already moved)
+    private static int sweptLeft(BulletPool b, int i, int frames) {
+        return (int) Math.min(b.x[i], b.x[i] - b.dx[i] * frames);
+    }
+
+    private static int sweptTop(BulletPool b, int i, int frames) {
+        return (int) Math.min(b.y[i], b.y[i] - b.dy[i] * frames);
+    }
+
+    private static int sweptSize(double d, int frames) {
+        return BulletPool.SIZE + 1 + (int) Math.abs(d * frames);
+    }
+
+    // Turns on the parallel enemy-bullet pass with the given number of worker
+    // threads; 0 or 1 keeps everything on the calling thread. Both modes
+    // produce exactly the same world.
+    public void setParallelism(int threads) {
+        if (bulletWorkers != null) bulletWorkers.shutdown();
+        bulletWorkers = threads > 1 ? new java.util.concurrent.ForkJoinPool(threads) : null;
+    }
+
+    // Update enemy bullets and check collision with player’s (small) hitbox. Moving
+    // and testing a bullet only reads shared state, so that part runs in chunks
+    // (in parallel if enabled) and records each bullet's fate. Removal then runs
+    // sequentially in index order, exactly as if every bullet had been handled
+    // one by one, so the result does not depend on how the work was split.
+    void updateEnemyBullets() {
+        if (bulletFate.length < enemyBullets.capacity()) {
+            bulletFate = new byte[enemyBullets.capacity()];
+        }
+        int n = enemyBullets.count;
+        if (bulletWorkers != null && n > PARALLEL_CHUNK) {
+            bulletWorkers.invoke(new EnemyBulletTask(0, n));
+        } else {
+            classifyEnemyBullets(0, n);
+        }
+
+        // Removal swaps the last bullet (and its fate) into slot i, so i is only advanced for survivors
+        int hits = 0, partnerHits = 0;
+        int i = 0;
+        while (i < enemyBullets.count) {
+            byte fate = bulletFate[i];
+            if (fate == FATE_KEEP) {
+                i++;
+                continue;
+            }
+            if (fate == FATE_HIT) hits++;
+            if (fate == FATE_HIT_PARTNER) partnerHits++;
+            bulletFate[i] = bulletFate[enemyBullets.count - 1];
+            enemyBullets.remove(i);
+        }
+        if (hits > 0 || partnerHits > 0) {
+            player.health -= hits;
+            damageTaken += hits + partnerHits;
+            if (partner != null) partner.health -= partnerHits;
+            // The game ends when every player is down
+            if (player.health <= 0 && (partner == null || partner.health <= 0)) {
+                state = STATE_GAME_OVER;
+            }
+        }
+    }
+
+    // Moves bullets [from, to) and records whether each one survives, hits the player or leaves the arena.
+    // The hit test sweeps the bullet over the step in the player's frame of reference.
+    private void classifyEnemyBullets(int from, int to) {
+        BulletPool b = enemyBullets;
+        int frames = stepFrames;
+        b.update(from, to, frames);
+        boolean playerUp = player.health > 0, partnerUp = partner != null && partner.health > 0;
+        for (int i = from; i < to; i++) {
+            byte fate = FATE_KEEP;
+            // Only bullets sharing a cell with a player get a narrow-phase test
+            if (playerUp && bulletHits(b, i, frames, PLAYER_ID, player)) {
+                fate = FATE_HIT;
+            } else if (partnerUp && bulletHits(b, i, frames, PARTNER_ID, partner)) {
+                fate = FATE_HIT_PARTNER;
+            } else if (b.isOutside(i, width, height) || !lod.near(b.centerX(i), b.centerY(i))) {
+                fate = FATE_CULL;
+            }
+            bulletFate[i] = fate;
+        }
+    }
+
+    // Broad then narrow phase for enemy bullet i against a player's hitbox, swept in the player's frame of reference
+    private boolean bulletHits(BulletPool b, int i, int frames, int id, Player p) {
+        return grid.cellsContain(id, sweptLeft(b, i, frames), sweptTop(b, i, frames),
+                    sweptSize(b.dx[i], frames), sweptSize(b.dy[i], frames))
+                && p.hitBoxSweptByCircle(b.centerX(i) - b.dx[i] * frames + p.x - p.prevX,
+                    b.centerY(i) - b.dy[i] * frames + p.y - p.prevY, b.centerX(i), b.centerY(i), BulletPool.RADIUS);
+    }
+
+    private final class EnemyBulletTask extends java.util.concurrent.RecursiveAction {
+        private final int from, to;
+
+        EnemyBulletTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                classifyEnemyBullets(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new EnemyBulletTask(from, mid), new EnemyBulletTask(mid, to));
+        }
+    }
+
+    void updatePlayerBullets() {
+        // Update player bullets and check for hits on enemies. Enemies killed here keep
+        // their grid ids until the pass ends and are skipped once their health hits 0.
+        BulletPool b = playerBullets;
+        int frames = stepFrames;
+        b.update(0, b.count, frames);
+        int i = 0;
+        while (i < b.count) {
+            int n = grid.query(sweptLeft(b, i, frames), sweptTop(b, i, frames),
+                    sweptSize(b.dx[i], frames), sweptSize(b.dy[i], frames));
+            double cx = b.centerX(i), cy = b.centerY(i);
+            double startX = cx - b.dx[i] * frames, startY = cy - b.dy[i] * frames;
+            // Of the enemies the bullet's path touches, the earliest in the store takes the hit
+            int target = -1, damage = 0;
+            for (int k = 0; k < n; k++) {
+                int id = grid.result(k);
+                if (id < ENEMY_ID || (target >= 0 && id - ENEMY_ID > target)) continue;
+                EnemyArchetype a = enemies.archetypeOf(id - ENEMY_ID);
+                int e = enemies.indexOf(id - ENEMY_ID);
+                if (a.health[e] <= 0) continue;
+                // Swept in the enemy's frame of reference
+                int d = a.bulletDamage(e, startX + a.x[e] - a.prevX[e], startY + a.y[e] - a.prevY[e], cx, cy);
+                if (d != EnemyArchetype.MISS) {
+                    target = id - ENEMY_ID;
+                    damage = d;
+                }
+            }
+            if (target < 0) {
+                if (b.isOutside(i, width, height)) {
+                    b.remove(i);
+                } else {
+                    i++;
+                }
+                continue;
+            }
+            EnemyArchetype a = enemies.archetypeOf(target);
+            int e = enemies.indexOf(target);
+            a.health[e] -= damage;
+            if (effects) particles.emitSparks(cx, cy, 4);
+            playerBullets.remove(i);
+            if (a.health[e] <= 0) {
+                spawnExplosion(a.x[e] + a.width/2, a.y[e] + a.height/2);
+                if (random.nextDouble() < 0.3) {
+                    powerUps.spawn(a.x[e], a.y[e], random.nextInt(2));
+                }
+            }
+        }
+        enemies.removeDead();
+    }
+
+    void updatePowerUps() {
+        // Update power-ups and check for player collection
+        PowerUpPool p = powerUps;
+        for (int k = p.count - 1; k >= 0; k--) {
+            int fromY = p.y[k];
+            p.y[k] += PowerUpPool.SPEED * stepFrames;
+            Player collector = null;
+            if (grid.query(p.x[k], fromY, PowerUpPool.SIZE, p.y[k] - fromY + PowerUpPool.SIZE) > 0) {
+                if (grid.contains(PLAYER_ID) && player.health > 0 && p.touches(k, player, fromY)) {
+                    collector = player;
+                } else if (grid.contains(PARTNER_ID) && partner.health > 0 && p.touches(k, partner, fromY)) {
+                    collector = partner;
+                }
+            }
+            if (collector != null) {
+                if (p.type[k] == 0) { // Health restore
+                    collector.health = Math.min(collector.health + 1, collector.maxHealth);
+                } else if (p.type[k] == 1) { // Fire rate boost
+                    collector.fireRateBoostTimer = 300;
+                    collector.shootDelay = 5;
+                }
+                p.remove(k);
+            } else if (p.y[k] > height) {
+                p.remove(k);
+            }
+        }
+    }
+
+    void updateParticles() {
+        if (!effects) return;
+        // Engine trails behind the players, then step every particle
+        if (trails) {
+            particles.emitTrail(player.x + player.width / 2.0 - 1.5, player.y + player.height);
+            if (partner != null && partner.health > 0) {
+                particles.emitTrail(partner.x + partner.width / 2.0 - 1.5, partner.y + partner.height);
+            }
+        }
+        particles.update();
+    }
+
+    void updateFireRateBoost() {
+        updateFireRateBoost(player);
+        if (partner != null) updateFireRateBoost(partner);
+    }
+
+    private static void updateFireRateBoost(Player player) {
+        // Update fire rate boost timer on the player
+        if (player.fireRateBoostTimer > 0) {
+            player.fireRateBoostTimer--;
+            if (player.fireRateBoostTimer == 0) {
+                player.shootDelay = player.baseShootDelay;
+            }
+        }
+    }
+
+    void advanceWave() {
+        // Once the wave's events have all fired and its enemies are destroyed, either
+        // spawn the next wave or win if it was the last
+        if (enemies.isEmpty() && schedule.isEmpty()) {
+            if (wave < stage.waves() || endless) {
+                wave++;
+                spawnWave(wave);
+            } else {
+                state = STATE_VICTORY;
+            }
+        }
+    }
+
+    // Spawn explosion particles at (x,y)
+    private void spawnExplosion(int x, int y) {
+        if (effects) particles.emitExplosion(x, y, 20);
+    }
+}
+
+// --------------------
+// WorldRenderer Class
+// --------------------
+// Draws a GameWorld in play, including the HUD. Kept apart from GamePanel so
+// the world can also be rendered offscreen. Everything is blitted from the
+// RenderResources sprite atlas, grouped by sprite, so a frame never switches
+// colours or fonts per entity.
+class WorldRenderer {
+    private RenderResources resources;
+
+    // HUD lines that rarely change are cached as one image; the score changes
+    // every tick, so it is drawn from digit sprites instead
+    private Image hud;
+    private int hudHealth = -1, hudBombs = -1, hudWave = -1, hudPartner = -1;
+    private RenderFrame scratch;
+
+    // Captures the world into a private frame first; for offscreen and benchmark use
+    public void draw(Graphics g, GameWorld world, double alpha) {
+        if (scratch == null) scratch = new RenderFrame(world);
+        scratch.capture(world);
+        draw(g, scratch, alpha);
+    }
+
+    public void draw(Graphics g, RenderFrame f, double alpha) {
+        RenderResources r = resourcesFor(g);
+        // The world is drawn through the camera, the HUD straight onto the screen
+        int cameraX = f.cameraX(alpha), cameraY = f.cameraY(alpha);
+        g.translate(-cameraX, -cameraY);
+        // Draw the player, and the partner in co-op; a player who is down is not drawn
+        if (!f.hasPartner || f.health > 0) {
+            drawPlayer(g, r, RenderResources.PLAYER, f.playerPrevX, f.playerPrevY, f.playerX, f.playerY,
+                    f.focusMode, f.hitBoxX, f.hitBoxY, f.hitBoxWidth, f.hitBoxHeight, alpha);
+        }
+        if (f.hasPartner && f.partnerUp) {
+            drawPlayer(g, r, RenderResources.PARTNER, f.partnerPrevX, f.partnerPrevY, f.partnerX, f.partnerY,
+                    f.partnerFocusMode, f.partnerHitBoxX, f.partnerHitBoxY, f.partnerHitBoxWidth, f.partnerHitBoxHeight, alpha);
+        }
+        // Draw enemies, each with its archetype's sprite (bosses are orange)
+        for (int k = 0; k < f.enemyCount; k++) {
+            r.draw(g, f.enemySprite[k], GameLoop.lerp(f.enemyPrevX[k], f.enemyX[k], alpha), GameLoop.lerp(f.enemyPrevY[k], f.enemyY[k], alpha));
+        }
+        // Draw enemy bullets, then player bullets
+        drawBullets(g, r, f.enemyBullets, RenderResources.ENEMY_BULLET, alpha);
+        drawBullets(g, r, f.playerBullets, RenderResources.PLAYER_BULLET, alpha);
+        // Draw power-ups, one sprite at a time
+        drawPowerUps(g, r, f, 0, RenderResources.POWERUP_HEALTH, alpha);
+        drawPowerUps(g, r, f, 1, RenderResources.POWERUP_BOOST, alpha);
+        // Draw particles
+        drawParticles(g, r, f, alpha);
+        g.translate(cameraX, cameraY);
+        // Draw HUD
+        drawHud(g, r, f);
+    }
+
+    private RenderResources resourcesFor(Graphics g) {
+        GraphicsConfiguration config = ((Graphics2D) g).getDeviceConfiguration();
+        if (resources == null || resources.config != config) {
+            resources = new RenderResources(config);
+            hud = null;
+        }
+        return resources;
+    }
+
+    private void drawBullets(Graphics g, RenderResources r, BulletPool b, int sprite, double alpha) {
+        // Bullets move in straight lines, so the previous position is x - dx
+        double back = 1.0 - alpha;
+        for (int i = 0; i < b.count; i++) {
+            r.draw(g, sprite, (int)(b.x[i] - b.dx[i] * back), (int)(b.y[i] - b.dy[i] * back));
+        }
+    }
+
+    private static void drawPlayer(Graphics g, RenderResources r, int sprite, int prevX, int prevY, int x, int y,
+                                   boolean focusMode, int hitBoxX, int hitBoxY, int hitBoxWidth, int hitBoxHeight, double alpha) {
+        int px = GameLoop.lerp(prevX, x, alpha);
+        int py = GameLoop.lerp(prevY, y, alpha);
+        r.draw(g, sprite, px, py);
+        if (focusMode) {
+            g.setColor(Color.WHITE);
+            g.drawRect(px + hitBoxX - x, py + hitBoxY - y, hitBoxWidth, hitBoxHeight);
+        }
+    }
+
+    private void drawPowerUps(Graphics g, RenderResources r, RenderFrame f, int type, int sprite, double alpha) {
+        for (int k = 0; k < f.powerUpCount; k++) {
+            if (f.powerUpType[k] == type) {
+                r.draw(g, sprite, f.powerUpX[k], GameLoop.lerp(f.powerUpPrevY[k], f.powerUpY[k], alpha));
+            }
+        }
+    }
+
+    private void drawParticles(Graphics g, RenderResources r, RenderFrame f, double alpha) {
+        double back = 1.0 - alpha;
+        for (int i = 0; i < f.particleCount; i++) {
+            r.draw(g, RenderResources.PARTICLE_EXPLOSION + f.particleKind[i],
+                    (int)(f.particleX[i] - f.particleDx[i] * back), (int)(f.particleY[i] - f.particleDy[i] * back));
+        }
+    }
+
+    private void drawHud(Graphics g, RenderResources r, RenderFrame f) {
+        int x = r.draw(g, RenderResources.SCORE_LABEL, 10, 20 - r.hudAscent);
+        r.drawNumber(g, f.score, x, 20 - r.hudAscent);
+
+        int partner = f.hasPartner ? f.partnerHealth << 8 | f.partnerBombs : -1;
+        if (hud == null || f.health != hudHealth || f.bombs != hudBombs || f.wave != hudWave || partner != hudPartner) {
+            hudHealth = f.health;
+            hudBombs = f.bombs;
+            hudWave = f.wave;
+            hudPartner = partner;
+            hud = f.hasPartner
+                ? r.renderText(new String[] {"HP: " + hudHealth, "Bombs: " + hudBombs, "Wave: " + hudWave,
+                        "P2 HP: " + f.partnerHealth + "  Bombs: " + f.partnerBombs}, 20)
+                : r.renderText(new String[] {"HP: " + hudHealth, "Bombs: " + hudBombs, "Wave: " + hudWave}, 20);
+        }
+        g.drawImage(hud, 10, 40 - r.hudAscent, null);
+    }
+}
+
+// --------------------
+// RenderResources Class
+// --------------------
+// Fonts and pre-rasterized sprites shared by every frame. All sprites are
+// packed into a single atlas image created for the target GraphicsConfiguration,
+// so Java2D can keep it in video memory and each sprite is one drawImage.
+class RenderResources {
+    static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 36);
+    static final Font BANNER_FONT = new Font("Arial", Font.BOLD, 48);
+    static final Font MESSAGE_FONT = new Font("Arial", Font.PLAIN, 20);
+    static final Font HUD_FONT = new Font("Arial", Font.PLAIN, 16);
+    static final Font DEBUG_FONT = new Font("Monospaced", Font.PLAIN, 12);
+
+    // Sprite ids. Particle sprites follow ParticleSystem's kind order.
+    static final int ENEMY_BULLET = 0, PLAYER_BULLET = 1;
+    static final int POWERUP_HEALTH = 2, POWERUP_BOOST = 3;
+    static final int PLAYER = 4, NORMAL_ENEMY = 5, BOSS = 6;
+    static final int PARTICLE_EXPLOSION = 7, PARTICLE_SPARK = 8, PARTICLE_TRAIL = 9;
+    static final int SCORE_LABEL = 10, DIGIT_0 = 11;
+    static final int PARTNER = DIGIT_0 + 10;
+    private static final int SPRITE_COUNT = PARTNER + 1;
+    private static final int ATLAS_WIDTH = 256;
+
+    final GraphicsConfiguration config;
+    final int hudAscent;
+    private final Image atlas;
+    private final int[] sx = new int[SPRITE_COUNT], sy = new int[SPRITE_COUNT];
+    private final int[] sw = new int[SPRITE_COUNT], sh = new int[SPRITE_COUNT];
+
+    public RenderResources(GraphicsConfiguration config) {
+        this.config = config;
+        FontMetrics hudMetrics = metrics(HUD_FONT);
+        hudAscent = hudMetrics.getAscent();
+        int textHeight = hudMetrics.getAscent() + hudMetrics.getDescent();
+
+        size(ENEMY_BULLET, BulletPool.SIZE, BulletPool.SIZE);
+        size(PLAYER_BULLET, BulletPool.SIZE, BulletPool.SIZE);
+        size(POWERUP_HEALTH, 12, 12);
+        size(POWERUP_BOOST, 12, 12);
+        size(PLAYER, 20, 20);
+        size(PARTNER, 20, 20);
+        size(NORMAL_ENEMY, 40, 40);
+        size(BOSS, 120, 60);
+        size(PARTICLE_EXPLOSION, 4, 4);
+        size(PARTICLE_SPARK, 2, 2);
+        size(PARTICLE_TRAIL, 3, 3);
+        size(SCORE_LABEL, hudMetrics.stringWidth("Score: "), textHeight);
+        for (int d = 0; d < 10; d++) {
+            size(DIGIT_0 + d, hudMetrics.charWidth((char) ('0' + d)), textHeight);
+        }
+        int atlasHeight = pack();
+
+        atlas = createImage(ATLAS_WIDTH, atlasHeight);
+        Graphics2D g = (Graphics2D) atlas.getGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        oval(g, ENEMY_BULLET, Color.RED);
+        oval(g, PLAYER_BULLET, Color.BLUE);
+        oval(g, POWERUP_HEALTH, Color.GREEN);
+        oval(g, POWERUP_BOOST, Color.ORANGE);
+        rect(g, PLAYER, Color.CYAN);
+        rect(g, PARTNER, new Color(120, 255, 120));
+        rect(g, NORMAL_ENEMY, Color.MAGENTA);
+        shape(g, BOSS, EnemyStore.BOSS_HULL, Color.ORANGE);
+        shape(g, BOSS, EnemyStore.BOSS_ARMOR, Color.GRAY);
+        shape(g, BOSS, EnemyStore.BOSS_CORE, Color.RED);
+        oval(g, PARTICLE_EXPLOSION, Color.ORANGE);
+        oval(g, PARTICLE_SPARK, Color.YELLOW);
+        oval(g, PARTICLE_TRAIL, new Color(80, 160, 255, 160));
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(HUD_FONT);
+        g.setColor(Color.WHITE);
+        g.drawString("Score: ", sx[SCORE_LABEL], sy[SCORE_LABEL] + hudAscent);
+        for (int d = 0; d < 10; d++) {
+            g.drawString(String.valueOf(d), sx[DIGIT_0 + d], sy[DIGIT_0 + d] + hudAscent);
+        }
+        g.dispose();
+    }
+
+    // Blits a sprite with its top-left corner at (x, y); returns the x just past it
+    public int draw(Graphics g, int sprite, int x, int y) {
+        int w = sw[sprite], h = sh[sprite];
+        g.drawImage(atlas, x, y, x + w, y + h, sx[sprite], sy[sprite], sx[sprite] + w, sy[sprite] + h, null);
+        return x + w;
+    }
+
+    // Draws a non-negative number from the digit sprites without building a String
+    public int drawNumber(Graphics g, int value, int x, int y) {
+        int digits = 1;
+        for (int v = value / 10; v > 0; v /= 10) digits++;
+        int divisor = 1;
+        for (int k = 1; k < digits; k++) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            x = draw(g, DIGIT_0 + (value / divisor) % 10, x, y);
+        }
+        return x;
+    }
+
+    // Renders lines of HUD text, lineHeight apart, into a new transparent image
+    public Image renderText(String[] lines, int lineHeight) {
+        FontMetrics fm = metrics(HUD_FONT);
+        int w = 1;
+        for (String line : lines) w = Math.max(w, fm.stringWidth(line));
+        Image image = createImage(w, lineHeight * (lines.length - 1) + fm.getAscent() + fm.getDescent());
+        Graphics2D g = (Graphics2D) image.getGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(HUD_FONT);
+        g.setColor(Color.WHITE);
+        for (int k = 0; k < lines.length; k++) {
+            g.drawString(lines[k], 0, fm.getAscent() + k * lineHeight);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private void size(int sprite, int w, int h) {
+        sw[sprite] = w;
+        sh[sprite] = h;
+    }
+
+    // Shelf-packs the sprites into ATLAS_WIDTH columns, 1px apart; returns the atlas height
+    private int pack() {
+        int x = 0, y = 0, shelf = 0;
+        for (int k = 0; k < SPRITE_COUNT; k++) {
+            if (x + sw[k] > ATLAS_WIDTH) {
+                x = 0;
+                y += shelf + 1;
+                shelf = 0;
+            }
+            sx[k] = x;
+            sy[k] = y;
+            x += sw[k] + 1;
+            shelf = Math.max(shelf, sh[k]);
+        }
+        return y + shelf;
+    }
+
+    private void oval(Graphics2D g, int sprite, Color color) {
+        g.setColor(color);
+        g.fillOval(sx[sprite], sy[sprite], sw[sprite], sh[sprite]);
+    }
+
+    private void rect(Graphics2D g, int sprite, Color color) {
+        g.setColor(color);
+        g.fillRect(sx[sprite], sy[sprite], sw[sprite], sh[sprite]);
+    }
+
+    // Layers a shape in sprite-local coordinates over what the sprite already has
+    private void shape(Graphics2D g, int sprite, java.awt.Shape shape, Color color) {
+        g.setComposite(AlphaComposite.SrcOver);
+        g.translate(sx[sprite], sy[sprite]);
+        g.setColor(color);
+        g.fill(shape);
+        g.translate(-sx[sprite], -sy[sprite]);
+        g.setComposite(AlphaComposite.Src);
+    }
+
+    private Image createImage(int w, int h) {
+        if (config != null) {
+            return config.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+        }
+        return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static FontMetrics metrics(Font font) {
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = scratch.getGraphics();
+        FontMetrics fm = g.getFontMetrics(font);
+        g.dispose();
+        return fm;
+    }
+}
+
+// --------------------
+// HeadlessRunner Class
+// --------------------
+// Steps a GameWorld with a scripted bot and no display, as fast as the CPU
+// allows, restarting whenever a game ends. Usage:
+//   java -Djava.awt.headless=true -cp target/classes bullethell.HeadlessRunner [ticks]
+// With -Dbullethell.profile=true it also prints per-phase tick timings, and
+// -Dbullethell.step=<n> simulates n frames per step (see GameWorld.step).
+// For soak tests, -Dbullethell.endless=true plays endless mode and
+// -Dbullethell.wave=<n> starts every game at wave n, and -Dbullethell.arena=<w>x<h>
+// sets the arena size.
+class HeadlessRunner {
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000L;
+
+        GameWorld world = GameWorld.configured();
+        world.stage = StageScript.configured(world.width, world.height);
+        InputState input = new InputState();
+        AllocationCounter allocations = new AllocationCounter();
+        world.profiler.enabled = Boolean.getBoolean("bullethell.profile");
+        int frames = Integer.getInteger("bullethell.step", 1);
+        world.endless = Boolean.getBoolean("bullethell.endless");
+        int startWave = Integer.getInteger("bullethell.wave", 1);
+        world.reset(startWave, 0);
+        long peakBullets = 0;
+        int peakWave = 0;
+        int games = 0, victories = 0;
+
+        long start = System.nanoTime();
+        for (long t = 0; t < ticks; t += frames) {
+            steer(world, input, t, frames);
+            allocations.begin();
+            world.step(input, frames);
+            allocations.end();
+            peakBullets = Math.max(peakBullets, world.enemyBullets.count);
+            peakWave = Math.max(peakWave, world.wave);
+            if (world.state != GameWorld.STATE_PLAYING) {
+                games++;
+                if (world.state == GameWorld.STATE_VICTORY) victories++;
+                world.reset(startWave, world.seed + 1);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%d ticks in %.3f s: %.0f ticks/s (%.1fx real time at 60 tps)%n",
+                ticks, seconds, ticks / seconds, ticks / seconds / 60);
+        System.out.printf("%d games finished, %d victories, reached wave %d with up to %d enemy bullets%n",
+                games, victories, peakWave, peakBullets);
+        System.out.printf("allocation: %.1f bytes/tick, %d of %d ticks allocated%n",
+                (double) allocations.totalBytes / ticks, allocations.allocatingSamples, allocations.samples);
+        if (world.profiler.enabled) {
+            for (String line : world.profiler.describe(world, allocations.lastBytes)) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    // Simple bot: stay under the first enemy in focus mode and tap fire every few ticks
+    static void steer(GameWorld world, InputState input, long tick) {
+        steer(world, input, tick, 1);
+    }
+
+    // Same, for a step of several frames starting at tick; fire still comes every 4th frame
+    static void steer(GameWorld world, InputState input, long tick, int frames) {
+        steer(world, world.player, input, tick, frames);
+    }
+
+    // Same, steering the given player (the player or, in co-op, the partner)
+    static void steer(GameWorld world, Player player, InputState input, long tick, int frames) {
+        input.clear();
+        input.focus = true;
+        input.fire = tick % 4 < frames;
+        if (!world.enemies.isEmpty()) {
+            EnemyArchetype target = world.enemies.archetypeOf(0);
+            int targetX = target.x[0] + target.width / 2;
+            int playerX = player.x + player.width / 2;
+            input.left = playerX > targetX + 2;
+            input.right = playerX < targetX - 2;
+        }
+    }
+}
+
+// --------------------
+// WarmUp Class
+// --------------------
+// Plays a bot-driven game offscreen, from wave 1 through the boss, with every
+// tick snapshotted, captured and drawn into an image the way GamePanel does
+// it. Run while the menu is up, it gets the tick, collision and drawing code
+// JIT-compiled before the first real boss wave instead of during it. It has its
+// own world, renderer and image, so nothing is shared with the game.
+class WarmUp implements Runnable {
+    // About a minute of play: the bot clears waves 1-3 and spends the rest on the boss
+    static final int DEFAULT_TICKS = 3600;
+
+    private final int ticks;
+    private volatile boolean stopped;
+    volatile int ticksRun;
+    volatile long elapsedNanos;
+
+    public WarmUp(int ticks) {
+        this.ticks = ticks;
+    }
+
+    // Ends the run after the current tick; the game calls this when play starts
+    public void stop() {
+        stopped = true;
+    }
+
+    public void run() {
+        long start = System.nanoTime();
+        GameWorld world = new GameWorld(600, 600);
+        InputState input = new InputState();
+        RewindBuffer rewind = new RewindBuffer(60, 4 << 20);
+        WorldRenderer renderer = new WorldRenderer();
+        Starfield starfield = new Starfield(world.width, world.height);
+        RenderFrame frame = new RenderFrame(world);
+        BufferedImage image = new BufferedImage(world.width, world.height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.createGraphics();
+        startGame(world);
+        try {
+            for (int t = 0; t < ticks && !stopped; t++) {
+                HeadlessRunner.steer(world, input, t);
+                world.tick(input);
+                rewind.push(world);
+                if (world.state != GameWorld.STATE_PLAYING) startGame(world);
+                starfield.update();
+                frame.capture(world);
+                starfield.copyOffsets(frame.starOffsets);
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, world.width, world.height);
+                starfield.draw(g, frame.starOffsets, frame.starLayers, 0.5, 0, 0);
+                renderer.draw(g, frame, 0.5);
+                ticksRun = t + 1;
+            }
+        } finally {
+            g.dispose();
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    // The bot can't dodge, so it plays immortal to be sure of reaching the boss
+    private static void startGame(GameWorld world) {
+        world.reset(1, world.seed + 1);
+        world.player.health = world.player.maxHealth = 1_000_000;
+    }
+}
+
+// --------------------
+// StartupBenchmark Class
+// --------------------
+// Cold-start benchmark, meant to run once per fresh JVM. It reports when the
+// first frame is drawn (counted from JVM start), how long the warm-up takes,
+// and then frame times from wave 1 through the boss, with each tick simulated
+// and drawn offscreen like the game does. Comparing runs with
+// -Dbullethell.warmup=0 and with -XX:SharedArchiveFile shows what each saves.
+class StartupBenchmark {
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 7200;
+        int warmUpTicks = Integer.getInteger("bullethell.warmup", WarmUp.DEFAULT_TICKS);
+
+        GameWorld world = new GameWorld(600, 600);
+        world.reset(1, 1);
+        world.player.health = world.player.maxHealth = 1_000_000;
+        InputState input = new InputState();
+        WorldRenderer renderer = new WorldRenderer();
+        RenderFrame frame = new RenderFrame(world);
+        BufferedImage image = new BufferedImage(world.width, world.height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.createGraphics();
+        renderer.draw(g, frame, 1.0);
+        long firstFrame = java.lang.management.ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.printf("first frame %d ms after JVM start%n", firstFrame);
+
+        if (warmUpTicks > 0) {
+            WarmUp warmUp = new WarmUp(warmUpTicks);
+            warmUp.run();
+            System.out.printf("warm-up: %d ticks in %d ms%n", warmUp.ticksRun, warmUp.elapsedNanos / 1_000_000);
+        }
+
+        // Frame time is one tick plus drawing it, split by whether a boss is up
+        LatencyHistogram waves = new LatencyHistogram(), boss = new LatencyHistogram();
+        long bossFirstSecondMax = 0;
+        int bossTicks = 0;
+        for (long t = 0; t < ticks && world.state == GameWorld.STATE_PLAYING; t++) {
+            long start = System.nanoTime();
+            HeadlessRunner.steer(world, input, t);
+            world.tick(input);
+            frame.capture(world);
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, world.width, world.height);
+            renderer.draw(g, frame, 1.0);
+            long elapsed = System.nanoTime() - start;
+            if (world.enemies.bosses.count > 0) {
+                boss.record(elapsed);
+                if (bossTicks++ < 60) bossFirstSecondMax = Math.max(bossFirstSecondMax, elapsed);
+            } else {
+                waves.record(elapsed);
+            }
+        }
+        g.dispose();
+
+        System.out.printf("waves 1-3 frames: p50 %.0f us, p99 %.0f us, max %.0f us%n",
+                waves.percentile(0.5) / 1e3, waves.percentile(0.99) / 1e3, waves.max / 1e3);
+        System.out.printf("boss wave frames: p50 %.0f us, p99 %.0f us, max %.0f us, max in its first second %.0f us%n",
+                boss.percentile(0.5) / 1e3, boss.percentile(0.99) / 1e3, boss.max / 1e3, bossFirstSecondMax / 1e3);
+        System.out.println(world.state == GameWorld.STATE_VICTORY ? "boss defeated" : "boss not defeated in " + ticks + " ticks");
+    }
+}
+
+// --------------------
+// InputLog Class
+// --------------------
+// A recorded run: the world size, seed, start wave and mode, then one byte of
+// input and the 32-bit state checksum for every tick. About five bytes per
+// tick, so an hour of play is roughly 1 MB.
+class InputLog {
+    private static final int MAGIC = 0x42485250; // "BHRP"
+    private static final int VERSION = 2; // replays of any other version are rejected
+    static final int LEFT = 1, RIGHT = 2, UP = 4, DOWN = 8, FOCUS = 16, FIRE = 32, BOMB = 64;
+
+    final int width, height, startWave;
+    final long seed;
+    final boolean endless;
+    private byte[] inputs;
+    private int[] checksums;
+    private int length;
+
+    public InputLog(int width, int height, long seed, int startWave, boolean endless) {
+        this(width, height, seed, startWave, endless, new byte[4096], new int[4096], 0);
+    }
+
+    private InputLog(int width, int height, long seed, int startWave, boolean endless, byte[] inputs, int[] checksums, int length) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        this.startWave = startWave;
+        this.endless = endless;
+        this.inputs = inputs;
+        this.checksums = checksums;
+        this.length = length;
+    }
+
+    // Call right after world.reset, before the first tick
+    static InputLog startRecording(GameWorld world) {
+        return new InputLog(world.width, world.height, world.seed, world.wave, world.endless);
+    }
+
+    // Appends one tick: the input it ran with and the checksum after it
+    public void record(InputState input, long checksum) {
+        if (length == inputs.length) {
+            inputs = java.util.Arrays.copyOf(inputs, length * 2);
+            checksums = java.util.Arrays.copyOf(checksums, length * 2);
+        }
+        inputs[length] = encode(input);
+        checksums[length] = (int) (checksum ^ (checksum >>> 32));
+        length++;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void input(int tick, InputState into) {
+        decode(inputs[tick], into);
+    }
+
+    public boolean matches(int tick, long checksum) {
+        return checksums[tick] == (int) (checksum ^ (checksum >>> 32));
+    }
+
+    static byte encode(InputState in) {
+        int bits = 0;
+        if (in.left) bits |= LEFT;
+        if (in.right) bits |= RIGHT;
+        if (in.up) bits |= UP;
+        if (in.down) bits |= DOWN;
+        if (in.focus) bits |= FOCUS;
+        if (in.fire) bits |= FIRE;
+        if (in.bomb) bits |= BOMB;
+        return (byte) bits;
+    }
+
+    static void decode(byte bits, InputState into) {
+        into.left = (bits & LEFT) != 0;
+        into.right = (bits & RIGHT) != 0;
+        into.up = (bits & UP) != 0;
+        into.down = (bits & DOWN) != 0;
+        into.focus = (bits & FOCUS) != 0;
+        into.fire = (bits & FIRE) != 0;
+        into.bomb = (bits & BOMB) != 0;
+    }
+
+    public void write(java.io.File file) throws java.io.IOException {
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(
+                new java.io.BufferedOutputStream(new java.io.FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeLong(seed);
+            out.writeInt(startWave);
+            out.writeBoolean(endless);
+            out.writeInt(length);
+            out.write(inputs, 0, length);
+            for (int t = 0; t < length; t++) {
+                out.writeInt(checksums[t]);
+            }
+        }
+    }
+
+    public static InputLog read(java.io.File file) throws java.io.IOException {
+        try (java.io.DataInputStream in = new java.io.DataInputStream(
+                new java.io.BufferedInputStream(new java.io.FileInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION) {
+                throw new java.io.IOException(file + " is not a replay file");
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            long seed = in.readLong();
+            int startWave = in.readInt();
+            boolean endless = in.readBoolean();
+            int length = in.readInt();
+            byte[] inputs = new byte[length];
+            in.readFully(inputs);
+            int[] checksums = new int[length];
+            for (int t = 0; t < length; t++) {
+                checksums[t] = in.readInt();
+            }
+            return new InputLog(width, height, seed, startWave, endless, inputs, checksums, length);
+        }
+    }
+}
+
+// --------------------
+// Replay Class
+// --------------------
+// Re-simulates a recorded run headlessly, as fast as the CPU allows, checking
+// the state checksum after every tick. Usage:
+//   java -Djava.awt.headless=true -cp target/classes bullethell.Replay <file>
+//   java -Djava.awt.headless=true -cp target/classes bullethell.Replay record <file> [seed]
+// The second form records one game played by HeadlessRunner's bot.
+class Replay {
+    public static void main(String[] args) throws java.io.IOException {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length >= 2 && args[0].equals("record")) {
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+            InputLog log = recordBot(seed);
+            log.write(new java.io.File(args[1]));
+            System.out.printf("recorded %d ticks to %s%n", log.length(), args[1]);
+            return;
+        }
+        if (args.length != 1) {
+            System.err.println("usage: Replay <file> | Replay record <file> [seed]");
+            System.exit(2);
+        }
+        InputLog log = InputLog.read(new java.io.File(args[0]));
+        GameWorld world = new GameWorld(log.width, log.height);
+        world.stage = StageScript.configured(world.width, world.height);
+
+        long start = System.nanoTime();
+        int desync = run(log, world);
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = elapsed / 1e9;
+        int ticks = desync < 0 ? log.length() : desync + 1;
+        System.out.printf("%d ticks replayed in %.3f s: %.0f ticks/s (%.1fx real time at 60 tps)%n",
+                ticks, seconds, ticks / seconds, ticks / seconds / 60);
+        if (desync >= 0) {
+            System.out.printf("DESYNC: checksum differs at tick %d%n", desync);
+            System.exit(1);
+        }
+        System.out.printf("all %d checksums match, final score %d%n", log.length(), world.score);
+    }
+
+    // Replays the log into world; returns the first tick whose checksum differs,
+    // or -1 if the whole run matches
+    static int run(InputLog log, GameWorld world) {
+        world.endless = log.endless;
+        world.reset(log.startWave, log.seed);
+        InputState input = new InputState();
+        for (int t = 0; t < log.length(); t++) {
+            log.input(t, input);
+            world.tick(input);
+            if (!log.matches(t, world.checksum())) return t;
+        }
+        return -1;
+    }
+
+    static InputLog recordBot(long seed) {
+        GameWorld world = new GameWorld(600, 600);
+        world.stage = StageScript.configured(world.width, world.height);
+        world.reset(1, seed);
+        InputLog log = InputLog.startRecording(world);
+        InputState input = new InputState();
+        for (long t = 0; world.state == GameWorld.STATE_PLAYING; t++) {
+            HeadlessRunner.steer(world, input, t);
+            world.tick(input);
+            log.record(input, world.checksum());
+        }
+        return log;
+    }
+}
+
+// --------------------
+// Balance Class
+// --------------------
+// Enemy tuning numbers. Normal enemy stats grow linearly with the wave; the
+// shoot delay shrinks down to a floor. Immutable, so worlds on different
+// threads can share one instance.
+final class Balance {
+    static final Balance DEFAULT = new Balance(2, 1, 2, 1, 60, 5, 20, 200, 40);
+
+    final int normalHealth, normalHealthPerWave;
+    final int normalSpeed, normalSpeedPerWave;
+    final int normalShootDelay, normalShootDelayPerWave, normalMinShootDelay;
+    final int bossHealth, bossShootDelay;
+
+    public Balance(int normalHealth, int normalHealthPerWave, int normalSpeed, int normalSpeedPerWave,
+                   int normalShootDelay, int normalShootDelayPerWave, int normalMinShootDelay,
+                   int bossHealth, int bossShootDelay) {
+        this.normalHealth = normalHealth;
+        this.normalHealthPerWave = normalHealthPerWave;
+        this.normalSpeed = normalSpeed;
+        this.normalSpeedPerWave = normalSpeedPerWave;
+        this.normalShootDelay = normalShootDelay;
+        this.normalShootDelayPerWave = normalShootDelayPerWave;
+        this.normalMinShootDelay = normalMinShootDelay;
+        this.bossHealth = bossHealth;
+        this.bossShootDelay = bossShootDelay;
+    }
+
+    // Overrides from a spec like "bossHealth=150,normalShootDelay=50"; unnamed fields keep DEFAULT
+    static Balance parse(String spec) {
+        int[] v = {DEFAULT.normalHealth, DEFAULT.normalHealthPerWave, DEFAULT.normalSpeed, DEFAULT.normalSpeedPerWave,
+                   DEFAULT.normalShootDelay, DEFAULT.normalShootDelayPerWave, DEFAULT.normalMinShootDelay,
+                   DEFAULT.bossHealth, DEFAULT.bossShootDelay};
+        for (String pair : spec.split(",")) {
+            if (pair.trim().isEmpty()) continue;
+            String[] kv = pair.split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("expected name=value: " + pair);
+            int index = java.util.Arrays.asList(NAMES).indexOf(kv[0].trim());
+            if (index < 0) throw new IllegalArgumentException("unknown balance field " + kv[0] + ", expected one of " + java.util.Arrays.toString(NAMES));
+            v[index] = Integer.parseInt(kv[1].trim());
+        }
+        return new Balance(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8]);
+    }
+
+    private static final String[] NAMES = {"normalHealth", "normalHealthPerWave", "normalSpeed", "normalSpeedPerWave",
+            "normalShootDelay", "normalShootDelayPerWave", "normalMinShootDelay", "bossHealth", "bossShootDelay"};
+
+    @Override
+    public String toString() {
+        return String.format("normalHealth=%d,normalHealthPerWave=%d,normalSpeed=%d,normalSpeedPerWave=%d,"
+                + "normalShootDelay=%d,normalShootDelayPerWave=%d,normalMinShootDelay=%d,bossHealth=%d,bossShootDelay=%d",
+                normalHealth, normalHealthPerWave, normalSpeed, normalSpeedPerWave,
+                normalShootDelay, normalShootDelayPerWave, normalMinShootDelay, bossHealth, bossShootDelay);
+    }
+}
+
+// --------------------
+// BatchSimulator Class
+// --------------------
+// Plays many independent games on a fixed thread pool for balance tuning and
+// prints win rate, survival time, damage taken and throughput. Each worker owns
+// its world, input and tallies, and takes game numbers from a shared counter;
+// game n always uses seed n, so results do not depend on the thread count.
+// Usage:
+//   java -Djava.awt.headless=true -cp target/classes bullethell.BatchSimulator
+//        [games] [threads] [scripted|random] [balance spec] [frames per step]
+// More than one frame per step runs a coarse simulation (see GameWorld.step).
+class BatchSimulator {
+    static final int MAX_TICKS = 60 * 60 * 10; // a game is abandoned after 10 minutes at 60 tps
+
+    // Per-worker totals, merged once all games are done
+    static final class Tally {
+        long games, victories, timeouts, ticks, damage;
+        long minSurvival = Long.MAX_VALUE, maxSurvival;
+        final long[] reachedWave = new long[6];
+
+        void add(GameWorld world) {
+            games++;
+            if (world.state == GameWorld.STATE_VICTORY) victories++;
+            else if (world.state == GameWorld.STATE_PLAYING) timeouts++;
+            ticks += world.frameCount;
+            damage += world.damageTaken;
+            minSurvival = Math.min(minSurvival, world.frameCount);
+            maxSurvival = Math.max(maxSurvival, world.frameCount);
+            reachedWave[Math.min(world.wave, reachedWave.length - 1)]++;
+        }
+
+        void merge(Tally other) {
+            games += other.games;
+            victories += other.victories;
+            timeouts += other.timeouts;
+            ticks += other.ticks;
+            damage += other.damage;
+            minSurvival = Math.min(minSurvival, other.minSurvival);
+            maxSurvival = Math.max(maxSurvival, other.maxSurvival);
+            for (int k = 0; k < reachedWave.length; k++) reachedWave[k] += other.reachedWave[k];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        boolean randomBot = args.length > 2 && args[2].equals("random");
+        Balance balance = args.length > 3 ? Balance.parse(args[3]) : Balance.DEFAULT;
+        int frames = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        long start = System.nanoTime();
+        Tally total = run(games, threads, randomBot, balance, frames);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d games (%s bot, %d frames/step) on %d threads in %.2f s: %.0f games/s, %.0f frames/s%n",
+                total.games, randomBot ? "random" : "scripted", frames, threads, seconds,
+                total.games / seconds, total.ticks / seconds);
+        System.out.println("balance: " + balance);
+        System.out.printf("win rate %.1f%%, %d timeouts%n", 100.0 * total.victories / total.games, total.timeouts);
+        System.out.printf("survival: mean %.1f s, min %.1f s, max %.1f s (60 tps)%n",
+                total.ticks / 60.0 / total.games, total.minSurvival / 60.0, total.maxSurvival / 60.0);
+        System.out.printf("damage taken: mean %.2f hits per game%n", (double) total.damage / total.games);
+        StringBuilder waves = new StringBuilder("last wave reached:");
+        for (int w = 1; w < total.reachedWave.length; w++) {
+            if (total.reachedWave[w] > 0) waves.append(String.format(" %d=%.1f%%", w, 100.0 * total.reachedWave[w] / total.games));
+        }
+        System.out.println(waves);
+    }
+
+    static Tally run(int games, int threads, boolean randomBot, Balance balance, int frames) throws Exception {
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(threads);
+        java.util.concurrent.atomic.AtomicInteger nextGame = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.List<java.util.concurrent.Future<Tally>> results = new ArrayList<>();
+        StageScript stage = StageScript.configured(600, 600);
+        try {
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    Tally tally = new Tally();
+                    GameWorld world = new GameWorld(600, 600);
+                    world.balance = balance;
+                    world.stage = stage;
+                    InputState input = new InputState();
+                    GameRandom botRandom = new GameRandom(0);
+                    for (int game; (game = nextGame.getAndIncrement()) < games; ) {
+                        play(world, input, botRandom, game, randomBot, frames);
+                        tally.add(world);
+                    }
+                    return tally;
+                }));
+            }
+            Tally total = new Tally();
+            for (java.util.concurrent.Future<Tally> result : results) {
+                total.merge(result.get());
+            }
+            return total;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static void play(GameWorld world, InputState input, GameRandom botRandom, long seed, boolean randomBot, int frames) {
+        world.reset(1, seed);
+        botRandom.setSeed(~seed);
+        for (int t = 0; t < MAX_TICKS && world.state == GameWorld.STATE_PLAYING; t += frames) {
+            if (randomBot) {
+                steerRandomly(input, botRandom, t, frames);
+            } else {
+                HeadlessRunner.steer(world, input, t, frames);
+            }
+            world.step(input, frames);
+        }
+    }
+
+    // Holds a random direction for about 8 frames at a time and taps fire every 4th frame
+    static void steerRandomly(InputState input, GameRandom random, int frame, int frames) {
+        if (frame % 8 < frames) {
+            int move = random.nextInt(16);
+            input.left = (move & 1) != 0;
+            input.right = (move & 2) != 0;
+            input.up = (move & 4) != 0;
+            input.down = (move & 8) != 0;
+            input.focus = random.nextInt(2) == 0;
+        }
+        input.fire = frame % 4 < frames;
+        input.bomb = false;
+    }
+}
+
+// --------------------
+// WorldSnapshot Class
+// --------------------
+// Packs the gameplay state of a GameWorld into a flat ByteBuffer and back:
+// counters and RNG state, the player, enemies, both bullet pools and the
+// power-ups. Particles are cosmetic and are cleared on restore. Bullets are
+// bulk-copied arrays, so a snapshot of tens of thousands of bullets is a few
+// memcpys. Use native byte order for speed; the layout is not meant to move
+// between machines.
+final class WorldSnapshot {
+    private static final int MAGIC = 0x42485353; // "BHSS"
+    // Snapshots of any other version are rejected
+    private static final int VERSION = 4;
+    private static final int FLAG_ENDLESS = 1, FLAG_COOP = 2;
+    private static final byte NORMAL = 0, BOSS = 1;
+    private static final int HEADER_BYTES = 4 * 10 + 8 + 8;
+    private static final int PLAYER_BYTES = 4 * 10 + 1;
+    private static final int ENEMY_BYTES = 1 + 4 * 9 + 8 + 2;
+    private static final int POWERUP_BYTES = 4 * 3;
+
+    private WorldSnapshot() {}
+
+    // Upper bound on the bytes write() needs for the world as it is now
+    static int sizeOf(GameWorld world) {
+        return HEADER_BYTES + PLAYER_BYTES * (world.partner != null ? 2 : 1)
+                + 4 + ENEMY_BYTES * world.enemies.size()
+                + world.enemyBullets.snapshotSize() + world.playerBullets.snapshotSize()
+                + 4 + POWERUP_BYTES * world.powerUps.count;
+    }
+
+    // Writes at the buffer's position and returns the number of bytes written
+    static int write(GameWorld world, ByteBuffer buf) {
+        int start = buf.position();
+        buf.putInt(MAGIC).putInt(VERSION);
+        buf.putInt(world.state).putInt(world.frameCount).putInt(world.score).putInt(world.wave);
+        buf.putInt(world.width).putInt(world.height);
+        buf.putInt((world.endless ? FLAG_ENDLESS : 0) | (world.partner != null ? FLAG_COOP : 0));
+        buf.putLong(world.seed).putLong(world.random.getState());
+        buf.putInt(world.waveStartFrame);
+
+        writePlayer(world.player, buf);
+        if (world.partner != null) writePlayer(world.partner, buf);
+
+        buf.putInt(world.enemies.size());
+        for (EnemyArchetype a : world.enemies.archetypes) {
+            byte kind = a == world.enemies.bosses ? BOSS : NORMAL;
+            for (int i = 0; i < a.count; i++) {
+                buf.put(kind);
+                buf.putInt(a.x[i]).putInt(a.y[i]).putInt(a.prevX[i]).putInt(a.prevY[i]);
+                buf.putInt(a.health[i]).putInt(a.shootDelay[i]).putInt(a.shootTimer[i]);
+                buf.putInt(a.speed[i]).putInt(a.direction[i]).putDouble(a.phase != null ? a.phase[i] : 0);
+                buf.putShort((short) world.stage.patternId(a.patterns[i]));
+            }
+        }
+
+        world.enemyBullets.writeTo(buf);
+        world.playerBullets.writeTo(buf);
+
+        PowerUpPool powerUps = world.powerUps;
+        buf.putInt(powerUps.count);
+        for (int k = 0; k < powerUps.count; k++) {
+            buf.putInt(powerUps.x[k]).putInt(powerUps.y[k]).putInt(powerUps.type[k]);
+        }
+        return buf.position() - start;
+    }
+
+    private static void writePlayer(Player p, ByteBuffer buf) {
+        buf.putInt(p.x).putInt(p.y).putInt(p.prevX).putInt(p.prevY);
+        buf.putInt(p.health).putInt(p.maxHealth).putInt(p.bombs);
+        buf.putInt(p.shootDelay).putInt(p.shootTimer).putInt(p.fireRateBoostTimer);
+        buf.put((byte) (p.focusMode ? 1 : 0));
+    }
+
+    private static Player readPlayer(ByteBuffer buf) {
+        Player p = new Player(buf.getInt(), buf.getInt());
+        p.prevX = buf.getInt();
+        p.prevY = buf.getInt();
+        p.health = buf.getInt();
+        p.maxHealth = buf.getInt();
+        p.bombs = buf.getInt();
+        p.shootDelay = buf.getInt();
+        p.shootTimer = buf.getInt();
+        p.fireRateBoostTimer = buf.getInt();
+        p.focusMode = buf.get() != 0;
+        return p;
+    }
+
+    // Restores a snapshot written by write() into a world of the same size
+    static void read(ByteBuffer buf, GameWorld world) {
+        read(buf, world, false);
+    }
+
+    // Particles aren't in snapshots; keepParticles leaves the current ones alone
+    // instead of clearing them, for rollbacks of a few ticks
+    static void read(ByteBuffer buf, GameWorld world, boolean keepParticles) {
+        int version = buf.getInt() == MAGIC ? buf.getInt() : -1;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("not a world snapshot");
+        }
+        world.state = buf.getInt();
+        world.frameCount = buf.getInt();
+        world.score = buf.getInt();
+        world.wave = buf.getInt();
+        int width = buf.getInt(), height = buf.getInt();
+        if (width != world.width || height != world.height) {
+            throw new IllegalArgumentException("snapshot is for a " + width + "x" + height + " world");
+        }
+        int flags = buf.getInt();
+        world.endless = (flags & FLAG_ENDLESS) != 0;
+        world.coop = (flags & FLAG_COOP) != 0;
+        world.seed = buf.getLong();
+        world.random.setState(buf.getLong());
+        world.waveStartFrame = buf.getInt();
+
+        world.player = readPlayer(buf);
+        world.partner = world.coop ? readPlayer(buf) : null;
+
+        EnemyStore enemies = world.enemies;
+        enemies.clear();
+        for (int k = buf.getInt(); k > 0; k--) {
+            boolean boss = buf.get() == BOSS;
+            int x = buf.getInt(), y = buf.getInt();
+            // Added with the wave's patterns; the stats are overwritten below
+            EnemyArchetype a = boss ? enemies.bosses : enemies.normals;
+            int i = boss ? enemies.addBoss(x, y, world.balance) : enemies.addNormal(x, y, world.wave, world.balance);
+            a.prevX[i] = buf.getInt();
+            a.prevY[i] = buf.getInt();
+            a.health[i] = buf.getInt();
+            a.shootDelay[i] = buf.getInt();
+            a.shootTimer[i] = buf.getInt();
+            a.speed[i] = buf.getInt();
+            a.direction[i] = buf.getInt();
+            double phase = buf.getDouble();
+            if (a.phase != null) a.phase[i] = phase;
+            int pattern = buf.getShort();
+            if (pattern >= world.stage.patternCount()) throw new IllegalArgumentException("snapshot is for another stage");
+            if (pattern >= 0) a.patterns[i] = world.stage.patterns(pattern);
+        }
+        world.scheduleEvents(world.frameCount);
+
+        world.enemyBullets.readFrom(buf);
+        world.playerBullets.readFrom(buf);
+
+        world.powerUps.clear();
+        for (int k = buf.getInt(); k > 0; k--) {
+            world.powerUps.spawn(buf.getInt(), buf.getInt(), buf.getInt());
+        }
+        if (!keepParticles) world.particles.clear();
+    }
+}
+
+// --------------------
+// RewindBuffer Class
+// --------------------
+// The last few seconds of play as a chain of snapshot deltas. Only the newest
+// snapshot is kept whole; every older one is stored as the XOR of it and its
+// successor, with runs of zero bytes collapsed, in a byte ring that drops the
+// oldest deltas once its budget is used. Rewinding walks the chain backwards,
+// XORing each delta into the newest snapshot. Both snapshots are zero-padded to
+// the longer one's length, so the head is zeroed past its own length before
+// each delta is applied.
+class RewindBuffer {
+    private final byte[] ring;
+    // Per delta: where it starts in ring, its encoded size, the length of the
+    // snapshot it restores and the padded length it was encoded over
+    private final int[] start, size, restoredLength, span;
+    private int first, deltas, writePos;
+
+    private byte[] head = new byte[0], next = new byte[0], scratch = new byte[0];
+    private int headLength = -1;
+
+    public RewindBuffer(int maxSteps, int ringBytes) {
+        ring = new byte[ringBytes];
+        start = new int[maxSteps];
+        size = new int[maxSteps];
+        restoredLength = new int[maxSteps];
+        span = new int[maxSteps];
+    }
+
+    // Steps that rewind() can go back
+    public int available() {
+        return deltas;
+    }
+
+    public void clear() {
+        first = deltas = writePos = 0;
+        headLength = -1;
+    }
+
+    // Records the world's current state as the newest step
+    public void push(GameWorld world) {
+        int capacity = WorldSnapshot.sizeOf(world);
+        if (next.length < capacity) next = new byte[capacity * 2];
+        ByteBuffer buf = ByteBuffer.wrap(next).order(ByteOrder.nativeOrder());
+        int length = WorldSnapshot.write(world, buf);
+        if (headLength >= 0) addDelta(length);
+        byte[] t = head;
+        head = next;
+        next = t;
+        headLength = length;
+    }
+
+    // Goes back up to steps snapshots, restores that state into world and
+    // returns how many steps it went back. Newer steps are discarded.
+    public int rewind(int steps, GameWorld world) {
+        if (headLength < 0) return 0;
+        steps = Math.min(steps, deltas);
+        for (int k = 0; k < steps; k++) {
+            int d = (first + deltas - 1) % start.length;
+            int length = restoredLength[d], n = span[d];
+            if (head.length < n) head = java.util.Arrays.copyOf(head, n * 2);
+            // Anything past the current snapshot is left over from a longer one
+            java.util.Arrays.fill(head, headLength, n, (byte) 0);
+            xorDecode(ring, start[d], head, n);
+            headLength = length;
+            deltas--;
+            writePos = start[d];
+        }
+        WorldSnapshot.read(ByteBuffer.wrap(head, 0, headLength).order(ByteOrder.nativeOrder()), world);
+        return steps;
+    }
+
+    // Encodes head XOR next (the new snapshot) so head can be rebuilt from next
+    private void addDelta(int nextLength) {
+        int n = Math.max(nextLength, headLength);
+        if (head.length < n) head = java.util.Arrays.copyOf(head, n);
+        if (next.length < n) next = java.util.Arrays.copyOf(next, n);
+        java.util.Arrays.fill(head, headLength, n, (byte) 0);
+        java.util.Arrays.fill(next, nextLength, n, (byte) 0);
+        if (scratch.length < 3 * n + 16) scratch = new byte[3 * n + 16];
+        int encoded = xorEncode(head, next, n, scratch);
+        if (encoded > ring.length) {
+            // A single step larger than the whole budget: the history cannot be kept
+            first = deltas = writePos = 0;
+            return;
+        }
+        if (writePos + encoded > ring.length) writePos = 0;
+        // Drop the oldest deltas until this one has room and a slot
+        while (deltas > 0 && (deltas == start.length || overlaps(start[first], size[first], writePos, encoded))) {
+            first = (first + 1) % start.length;
+            deltas--;
+        }
+        int d = (first + deltas) % start.length;
+        System.arraycopy(scratch, 0, ring, writePos, encoded);
+        start[d] = writePos;
+        size[d] = encoded;
+        restoredLength[d] = headLength;
+        span[d] = n;
+        deltas++;
+        writePos += encoded;
+    }
+
+    private static boolean overlaps(int aStart, int aSize, int bStart, int bSize) {
+        return aStart < bStart + bSize && bStart < aStart + aSize;
+    }
+
+    // Format: repeated (zero-run varint, literal-length varint, literal bytes) covering n bytes.
+    // Zero runs shorter than 4 bytes are folded into the literals.
+    private static int xorEncode(byte[] a, byte[] b, int n, byte[] out) {
+        int o = 0, i = 0;
+        while (i < n) {
+            int zeros = i;
+            while (zeros < n && a[zeros] == b[zeros]) zeros++;
+            // The literal runs until 4 equal bytes in a row or the end; those
+            // equal bytes start the next zero run
+            int end = zeros, quiet = 0;
+            while (end < n && quiet < 4) {
+                quiet = a[end] == b[end] ? quiet + 1 : 0;
+                end++;
+            }
+            end -= quiet;
+            o = putVarint(out, o, zeros - i);
+            o = putVarint(out, o, end - zeros);
+            for (int k = zeros; k < end; k++) out[o++] = (byte) (a[k] ^ b[k]);
+            i = end;
+        }
+        return o;
+    }
+
+    private static void xorDecode(byte[] in, int pos, byte[] target, int n) {
+        int i = 0;
+        while (i < n) {
+            int zeros = 0, shift = 0, b;
+            do {
+                b = in[pos++];
+                zeros |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int literal = 0;
+            shift = 0;
+            do {
+                b = in[pos++];
+                literal |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            i += zeros;
+            for (int k = 0; k < literal; k++) target[i++] ^= in[pos++];
+        }
+    }
+
+    private static int putVarint(byte[] out, int o, int v) {
+        while ((v & ~0x7F) != 0) {
+            out[o++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[o++] = (byte) v;
+        return o;
+    }
+}
+
+// --------------------
+// SaveSlots Class
+// --------------------
+// Numbered save files holding one WorldSnapshot each, written and read through
+// memory-mapped files so the snapshot is encoded straight into the page cache.
+class SaveSlots {
+    private final java.io.File directory;
+
+    public SaveSlots(java.io.File directory) {
+        this.directory = directory;
+    }
+
+    public java.io.File file(int slot) {
+        return new java.io.File(directory, "slot" + slot + ".bhs");
+    }
+
+    public void save(int slot, GameWorld world) throws java.io.IOException {
+        directory.mkdirs();
+        int size = WorldSnapshot.sizeOf(world);
+        try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(file(slot).toPath(),
+                java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.READ,
+                java.nio.file.StandardOpenOption.WRITE, java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+            java.nio.MappedByteBuffer map = ch.map(java.nio.channels.FileChannel.MapMode.READ_WRITE, 0, size);
+            map.order(ByteOrder.nativeOrder());
+            WorldSnapshot.write(world, map);
+            map.force();
+        }
+    }
+
+    // Returns false if the slot has never been saved
+    public boolean load(int slot, GameWorld world) throws java.io.IOException {
+        java.io.File f = file(slot);
+        if (!f.isFile()) return false;
+        try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(f.toPath(),
+                java.nio.file.StandardOpenOption.READ)) {
+            java.nio.MappedByteBuffer map = ch.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            map.order(ByteOrder.nativeOrder());
+            WorldSnapshot.read(map, world);
+        }
+        return true;
+    }
+}
+
+// --------------------
+// RollbackSession Class
+// --------------------
+// Two-player co-op with rollback. Both peers simulate the same world, and each
+// sends its own inputs over a NetLink as it goes.
+// - Prediction: where the peer's input for a tick hasn't arrived, the peer is
+//   assumed to keep holding what it held last, without fire or bomb.
+// - Rollback: a snapshot is kept for each of the last few ticks. When a real
+//   input differs from its prediction, the world is restored to just before
+//   that tick and re-simulated up to the present, with particles paused.
+// - Stalling: advance() refuses to run more than MAX_ROLLBACK ticks past the
+//   peer's last known input.
+// Every packet repeats all the local inputs the peer hasn't acknowledged, so a
+// lost packet is covered by the next one. It also carries the checksum of the
+// newest tick with both inputs known, so the peers notice a desync.
+class RollbackSession {
+    static final int MAX_ROLLBACK = 8;
+    private static final int HISTORY = 256; // ticks of inputs and checksums kept; a power of two
+    private static final int MAX_INPUTS_PER_PACKET = 64;
+    private static final int MAGIC = 0x42484E50; // "BHNP"
+    static final int MAX_PACKET = 4 * 5 + 1 + MAX_INPUTS_PER_PACKET + 8;
+
+    final GameWorld world;
+    final int slot; // 0: this peer plays world.player, 1: world.partner
+    private final NetLink link;
+    private final int sessionId;
+
+    // Per tick, at tick & (HISTORY - 1). Remote inputs past remoteConfirmed are predictions.
+    private final byte[] localInputs = new byte[HISTORY];
+    private final byte[] remoteInputs = new byte[HISTORY];
+    private final long[] checksums = new long[HISTORY];
+    // The world as it was before tick t, at t % snapshots.length
+    private final ByteBuffer[] snapshots = new ByteBuffer[MAX_ROLLBACK + 2];
+    private final InputState localState = new InputState(), remoteState = new InputState();
+    private final ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET);
+
+    long tick;                  // next tick to simulate
+    long remoteConfirmed = -1;  // the peer's inputs are known for every tick up to here
+    long localAcked = -1;       // the peer has every local input up to here
+    private long mispredicted = Long.MAX_VALUE; // earliest simulated tick that used a wrong prediction
+    private long peerChecksumTick = -1, peerChecksum;
+    long desyncTick = -1;       // first tick found to differ from the peer, or -1
+
+    // Statistics
+    long rollbacks, resimulatedTicks, stalls;
+    int deepestRollback;
+    final LatencyHistogram rollbackTimes = new LatencyHistogram();
+
+    // The world must have just been reset in co-op mode with the peer's seed;
+    // sessionId tells this game's packets from any left over from an earlier one
+    public RollbackSession(GameWorld world, int slot, NetLink link, int sessionId) {
+        if (world.partner == null) throw new IllegalArgumentException("world is not in co-op mode");
+        this.world = world;
+        this.slot = slot;
+        this.link = link;
+        this.sessionId = sessionId;
+    }
+
+    // Runs the next tick with this peer's input, after applying any corrections
+    // from the network. Returns false, without simulating, while stalled.
+    public boolean advance(InputState input) throws java.io.IOException {
+        poll();
+        if (tick - remoteConfirmed > MAX_ROLLBACK) {
+            stalls++;
+            send();
+            return false;
+        }
+        rollback();
+        int i = (int) tick & (HISTORY - 1);
+        localInputs[i] = InputLog.encode(input);
+        if (tick > remoteConfirmed) remoteInputs[i] = predict();
+        simulate(tick);
+        tick++;
+        send();
+        return true;
+    }
+
+    // Exchanges packets and applies corrections without moving on; for winding a session down
+    public void settle() throws java.io.IOException {
+        poll();
+        rollback();
+        send();
+    }
+
+    public long checksum(long t) {
+        return checksums[(int) t & (HISTORY - 1)];
+    }
+
+    // The peer keeps holding what it held on its last known tick
+    private byte predict() {
+        if (remoteConfirmed < 0) return 0;
+        return (byte) (remoteInputs[(int) remoteConfirmed & (HISTORY - 1)] & ~(InputLog.FIRE | InputLog.BOMB));
+    }
+
+    private void simulate(long t) {
+        int i = (int) t & (HISTORY - 1);
+        save(t);
+        InputLog.decode(localInputs[i], localState);
+        InputLog.decode(remoteInputs[i], remoteState);
+        if (slot == 0) {
+            world.tick(localState, remoteState);
+        } else {
+            world.tick(remoteState, localState);
+        }
+        checksums[i] = world.checksum();
+    }
+
+    private void save(long t) {
+        int k = (int) (t % snapshots.length);
+        int size = WorldSnapshot.sizeOf(world);
+        if (snapshots[k] == null || snapshots[k].capacity() < size) {
+            snapshots[k] = ByteBuffer.allocate(Math.max(size, snapshots[k] == null ? 0 : snapshots[k].capacity() * 2));
+        }
+        ByteBuffer b = snapshots[k];
+        b.clear();
+        WorldSnapshot.write(world, b);
+        b.flip();
+    }
+
+    private void rollback() {
+        long from = mispredicted;
+        mispredicted = Long.MAX_VALUE;
+        if (from < tick) {
+            long start = System.nanoTime();
+            ByteBuffer b = snapshots[(int) (from % snapshots.length)];
+            b.rewind();
+            WorldSnapshot.read(b, world, true);
+            world.effects = false;
+            for (long t = from; t < tick; t++) {
+                if (t > remoteConfirmed) remoteInputs[(int) t & (HISTORY - 1)] = predict();
+                simulate(t);
+            }
+            world.effects = true;
+            rollbacks++;
+            resimulatedTicks += tick - from;
+            deepestRollback = (int) Math.max(deepestRollback, tick - from);
+            rollbackTimes.record(System.nanoTime() - start);
+        }
+        // Our checksum for a tick is final once both inputs for it are known and any rollback is done
+        long t = peerChecksumTick;
+        if (desyncTick < 0 && t >= 0 && t <= remoteConfirmed && t < tick && tick - t < HISTORY
+                && checksum(t) != peerChecksum) {
+            desyncTick = t;
+        }
+    }
+
+    private void poll() throws java.io.IOException {
+        while (link.receive(packet)) {
+            if (packet.remaining() < MAX_PACKET - MAX_INPUTS_PER_PACKET
+                    || packet.getInt() != MAGIC || packet.getInt() != sessionId) {
+                continue;
+            }
+            long ack = packet.getInt();
+            if (ack < tick) localAcked = Math.max(localAcked, ack);
+            long start = packet.getInt();
+            int count = packet.get() & 0xFF;
+            if (count > packet.remaining() - 12) continue;
+            for (int k = 0; k < count; k++) {
+                long t = start + k;
+                byte in = packet.get();
+                // Inputs are taken strictly in order; anything after a gap comes again in a later packet
+                if (t != remoteConfirmed + 1 || t - tick >= HISTORY - MAX_ROLLBACK) continue;
+                int i = (int) t & (HISTORY - 1);
+                if (t < tick && remoteInputs[i] != in) mispredicted = Math.min(mispredicted, t);
+                remoteInputs[i] = in;
+                remoteConfirmed = t;
+            }
+            long checksumTick = packet.getInt();
+            long checksum = packet.getLong();
+            if (checksumTick > peerChecksumTick) {
+                peerChecksumTick = checksumTick;
+                peerChecksum = checksum;
+            }
+        }
+    }
+
+    private void send() throws java.io.IOException {
+        long from = Math.max(localAcked + 1, tick - MAX_INPUTS_PER_PACKET);
+        long confirmed = Math.min(remoteConfirmed, tick - 1);
+        packet.clear();
+        packet.putInt(MAGIC).putInt(sessionId).putInt((int) remoteConfirmed);
+        packet.putInt((int) from).put((byte) (tick - from));
+        for (long t = from; t < tick; t++) {
+            packet.put(localInputs[(int) t & (HISTORY - 1)]);
+        }
+        packet.putInt((int) confirmed).putLong(confirmed >= 0 ? checksum(confirmed) : 0);
+        packet.flip();
+        link.send(packet);
+    }
+}
+
+// --------------------
+// NetLink Class
+// --------------------
+// A non-blocking UDP socket that talks to one peer. Outgoing packets can be
+// delayed and dropped on purpose, to try netplay under bad network conditions
+// on a single machine. The drops come from a seeded generator, so the same
+// settings misbehave the same way on every run.
+class NetLink implements java.io.Closeable {
+    private static final int QUEUE = 1024; // delayed packets in flight; a power of two
+
+    private final java.nio.channels.DatagramChannel channel;
+    private final java.net.InetSocketAddress peer;
+    private final long latencyNanos;
+    private final double loss;
+    private final GameRandom random;
+
+    // Delayed packets, oldest first: when each is due and its bytes
+    private final long[] due = new long[QUEUE];
+    private final ByteBuffer[] queued = new ByteBuffer[QUEUE];
+    private int head, count;
+
+    long sent, dropped, received;
+
+    public NetLink(int localPort, String peerHost, int peerPort, int latencyMillis, double loss, long seed)
+            throws java.io.IOException {
+        channel = java.nio.channels.DatagramChannel.open();
+        channel.bind(new java.net.InetSocketAddress(localPort));
+        channel.configureBlocking(false);
+        peer = new java.net.InetSocketAddress(java.net.InetAddress.getByName(peerHost), peerPort);
+        latencyNanos = latencyMillis * 1_000_000L;
+        this.loss = loss;
+        random = new GameRandom(seed);
+        for (int k = 0; k < QUEUE; k++) {
+            queued[k] = ByteBuffer.allocate(RollbackSession.MAX_PACKET);
+        }
+    }
+
+    // Sends the packet's remaining bytes, now or after the artificial latency
+    public void send(ByteBuffer packet) throws java.io.IOException {
+        flush();
+        if (loss > 0 && random.nextDouble() < loss) {
+            dropped++;
+            return;
+        }
+        if (latencyNanos == 0) {
+            transmit(packet);
+        } else if (count < QUEUE) {
+            int k = (head + count++) & (QUEUE - 1);
+            due[k] = System.nanoTime() + latencyNanos;
+            queued[k].clear();
+            queued[k].put(packet).flip();
+        } else {
+            dropped++;
+        }
+    }
+
+    // Reads the next packet from the peer into `into`, flipped; false if none is waiting
+    public boolean receive(ByteBuffer into) throws java.io.IOException {
+        flush();
+        while (true) {
+            into.clear();
+            java.net.SocketAddress from = channel.receive(into);
+            if (from == null) return false;
+            if (!peer.equals(from)) continue;
+            into.flip();
+            received++;
+            return true;
+        }
+    }
+
+    private void flush() throws java.io.IOException {
+        long now = System.nanoTime();
+        while (count > 0 && due[head] - now <= 0) {
+            transmit(queued[head]);
+            head = (head + 1) & (QUEUE - 1);
+            count--;
+        }
+    }
+
+    private void transmit(ByteBuffer packet) throws java.io.IOException {
+        try {
+            channel.send(packet, peer);
+            sent++;
+        } catch (java.net.PortUnreachableException ex) {
+            dropped++; // the peer isn't up yet
+        }
+    }
+
+    @Override
+    public void close() throws java.io.IOException {
+        channel.close();
+    }
+}
+
+// --------------------
+// Netplay Class
+// --------------------
+// Plays one side of a bot-driven co-op game against a peer process, at 60
+// ticks per second, and reports how the rollback held up. Run two instances
+// on one machine:
+//   java -Djava.awt.headless=true -cp target/classes bullethell.Netplay 1 7001 7002 [ticks] [latencyMs] [loss%] [seed]
+//   java -Djava.awt.headless=true -cp target/classes bullethell.Netplay 2 7002 7001 [ticks] [latencyMs] [loss%] [seed]
+// Latency and loss apply to each side's outgoing packets. The bots don't
+// dodge, so both players get effectively unlimited health, and the waves are
+// endless. Both sides print the checksum of the last tick; they must match.
+class Netplay {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 3) {
+            System.err.println("usage: Netplay <1|2> <localPort> <peerPort> [ticks] [latencyMs] [loss%] [seed]");
+            System.exit(2);
+        }
+        int slot = Integer.parseInt(args[0]) - 1;
+        int localPort = Integer.parseInt(args[1]), peerPort = Integer.parseInt(args[2]);
+        long ticks = args.length > 3 ? Long.parseLong(args[3]) : 3600;
+        int latency = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        double loss = args.length > 5 ? Double.parseDouble(args[5]) / 100 : 0;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+
+        GameWorld world = new GameWorld(600, 600);
+        world.stage = StageScript.configured(world.width, world.height);
+        world.coop = true;
+        world.endless = true;
+        world.reset(1, seed);
+        world.player.health = world.player.maxHealth = 1_000_000;
+        world.partner.health = world.partner.maxHealth = 1_000_000;
+
+        LatencyHistogram tickTimes = new LatencyHistogram();
+        InputState input = new InputState();
+        long tickNanos = 1_000_000_000L / 60;
+        try (NetLink link = new NetLink(localPort, "127.0.0.1", peerPort, latency, loss, seed * 31 + slot)) {
+            RollbackSession session = new RollbackSession(world, slot, link, (int) seed);
+            long next = System.nanoTime();
+            while (session.tick < ticks) {
+                Player me = slot == 0 ? world.player : world.partner;
+                HeadlessRunner.steer(world, me, input, session.tick, 1);
+                long start = System.nanoTime();
+                if (session.advance(input)) tickTimes.record(System.nanoTime() - start);
+                next += tickNanos;
+                java.util.concurrent.locks.LockSupport.parkNanos(next - System.nanoTime());
+            }
+            // Keep exchanging packets until each side has all of the other's inputs
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while ((session.remoteConfirmed < ticks - 1 || session.localAcked < ticks - 1)
+                    && System.nanoTime() < deadline) {
+                session.settle();
+                java.util.concurrent.locks.LockSupport.parkNanos(1_000_000);
+            }
+
+            System.out.printf("player %d: %d ticks, %d stalled ticks, wave %d, score %d%n",
+                    slot + 1, session.tick, session.stalls, world.wave, world.score);
+            System.out.printf("rollbacks %d, %d ticks re-simulated, deepest %d; rollback p50 %.0f us, p99 %.0f us, max %.0f us%n",
+                    session.rollbacks, session.resimulatedTicks, session.deepestRollback,
+                    session.rollbackTimes.percentile(0.5) / 1e3, session.rollbackTimes.percentile(0.99) / 1e3,
+                    session.rollbackTimes.max / 1e3);
+            System.out.printf("tick p50 %.0f us, p99 %.0f us, max %.0f us; packets sent %d, dropped %d, received %d%n",
+                    tickTimes.percentile(0.5) / 1e3, tickTimes.percentile(0.99) / 1e3, tickTimes.max / 1e3,
+                    link.sent, link.dropped, link.received);
+            if (session.remoteConfirmed < ticks - 1) {
+                System.out.println("peer's inputs incomplete, final checksum not confirmed");
+                System.exit(1);
+            }
+            System.out.printf("checksum at tick %d: %016x%n", ticks - 1, session.checksum(ticks - 1));
+            if (session.desyncTick >= 0) {
+                System.out.printf("DESYNC: checksum differs from the peer's at tick %d%n", session.desyncTick);
+                System.exit(1);
+            }
+        }
+    }
+}
+
+// --------------------
+// GameRandom Class
+// --------------------
+// Small seeded xorshift64* generator. Each GameWorld owns one, so a run is
+// fully determined by its seed and its inputs.
+class GameRandom {
+    private long state;
+
+    public GameRandom(long seed) {
+        setSeed(seed);
+    }
+
+    // Seeds are scrambled first, so nearby seeds give unrelated sequences
+    public void setSeed(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        state = z != 0 ? z : 0x9E3779B97F4A7C15L;
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    public long nextLong() {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state * 0x2545F4914F6CDD1DL;
+    }
+
+    // Uniform in [0, 1)
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // Uniform in [0, bound)
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+}
+
+// --------------------
+// GameLoop Class
+// --------------------
+// Runs simulation and rendering on two threads. The simulation thread runs
+// fixed-timestep ticks. Elapsed time is accumulated in whole nanoseconds and
+// one tick runs per full step, so no tick is ever dropped or run twice. After
+// a stall it catches up, then parks until the next tick is due. The render
+// thread draws the newest frame the simulation has published. It is paced to
+// framesPerSecond, or runs as fast as possible when that is 0. The threads only
+// meet in the panel's lock-free FrameExchange and InputQueue, so neither ever
+// waits for the other.
+class GameLoop {
+    private final GamePanel panel;
+    private final long tickNanos;
+    private final long frameNanos;
+    private volatile boolean running;
+
+    public GameLoop(GamePanel panel, int ticksPerSecond, int framesPerSecond) {
+        if (ticksPerSecond <= 0) throw new IllegalArgumentException("ticksPerSecond must be positive");
+        this.panel = panel;
+        this.tickNanos = 1_000_000_000L / ticksPerSecond;
+        this.frameNanos = framesPerSecond > 0 ? 1_000_000_000L / framesPerSecond : 0;
+    }
+
+    public void start() {
+        running = true;
+        startThread(this::simulate, "game-sim");
+        startThread(this::render, "game-render");
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    static int lerp(int from, int to, double alpha) {
+        return (int) Math.round(from + (to - from) * alpha);
+    }
+
+    private static void startThread(Runnable body, String name) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void simulate() {
+        long previous = System.nanoTime();
+        long accumulator = 0;
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - previous;
+            previous = now;
+            while (accumulator >= tickNanos) {
+                panel.tick();
+                accumulator -= tickNanos;
+            }
+            java.util.concurrent.locks.LockSupport.parkNanos(tickNanos - accumulator);
+        }
+    }
+
+    private void render() {
+        long nextFrame = System.nanoTime();
+        while (running) {
+            panel.renderFrame(tickNanos);
+            if (frameNanos > 0) {
+                nextFrame += frameNanos;
+                long wait = nextFrame - System.nanoTime();
+                if (wait > 0) {
+                    java.util.concurrent.locks.LockSupport.parkNanos(wait);
+                } else {
+                    nextFrame = System.nanoTime(); // running late: don't try to make up frames
+                }
+            }
+        }
+    }
+}
+
+// --------------------
+// RenderFrame Class
+// --------------------
+// Everything needed to draw one tick, copied out of the GameWorld by the
+// simulation thread. The renderer reads frames only, never the world. Arrays
+// are reused between captures, so once sizes settle a capture does not
+// allocate.
+class RenderFrame {
+    long tick;
+    long publishedNanos;
+    int gameState;
+    boolean paused;
+    String[] overlay; // profiler text, or null when the overlay is hidden
+    long inputNanos;  // when the earliest key event this frame is the first to show happened, or 0
+    final int[] starOffsets = new int[Starfield.LAYERS];
+    int starLayers = Starfield.LAYERS; // how many of the nearest layers to draw
+
+    // Everything except the HUD is in arena coordinates. The camera shows a
+    // viewWidth x viewHeight window centred on the followed player, kept inside
+    // the arena; the view defaults to the whole arena.
+    final int arenaWidth, arenaHeight;
+    int viewWidth, viewHeight;
+    boolean followPartner;
+    private int followWidth, followHeight;
+    // Entities are only captured within this far of the view, which covers
+    // anything that can move into it between two ticks
+    private static final int CULL_MARGIN = 64;
+
+    // HUD
+    int score, health, bombs, wave;
+
+    // Player, with the start of the tick for interpolation
+    int playerX, playerY, playerPrevX, playerPrevY;
+    boolean focusMode;
+    int hitBoxX, hitBoxY, hitBoxWidth, hitBoxHeight;
+    // Co-op partner, drawn the same way; hasPartner is false when solo
+    boolean hasPartner, partnerUp;
+    int partnerHealth, partnerBombs;
+    int partnerX, partnerY, partnerPrevX, partnerPrevY;
+    boolean partnerFocusMode;
+    int partnerHitBoxX, partnerHitBoxY, partnerHitBoxWidth, partnerHitBoxHeight;
+
+    int enemyCount;
+    int[] enemyX = new int[8], enemyY = new int[8], enemyPrevX = new int[8], enemyPrevY = new int[8];
+    int[] enemySprite = new int[8];
+
+    final BulletPool enemyBullets, playerBullets;
+
+    int powerUpCount;
+    int[] powerUpX = new int[8], powerUpY = new int[8], powerUpPrevY = new int[8], powerUpType = new int[8];
+
+    // Live particles only, packed from the ring
+    int particleCount;
+    final double[] particleX, particleY, particleDx, particleDy;
+    final byte[] particleKind;
+
+    public RenderFrame(GameWorld world) {
+        arenaWidth = viewWidth = world.width;
+        arenaHeight = viewHeight = world.height;
+        enemyBullets = new BulletPool(world.enemyBullets.capacity());
+        playerBullets = new BulletPool(world.playerBullets.capacity());
+        int particles = world.particles.capacity();
+        particleX = new double[particles];
+        particleY = new double[particles];
+        particleDx = new double[particles];
+        particleDy = new double[particles];
+        particleKind = new byte[particles];
+    }
+
+    public void capture(GameWorld world) {
+        score = world.score;
+        wave = world.wave;
+
+        Player p = world.player;
+        health = Math.max(p.health, 0);
+        bombs = p.bombs;
+        playerX = p.x;
+        playerY = p.y;
+        playerPrevX = p.prevX;
+        playerPrevY = p.prevY;
+        focusMode = p.focusMode;
+        hitBoxX = p.hitBoxX();
+        hitBoxY = p.hitBoxY();
+        hitBoxWidth = p.hitBoxWidth();
+        hitBoxHeight = p.hitBoxHeight();
+
+        followWidth = p.width;
+        followHeight = p.height;
+
+        Player q = world.partner;
+        hasPartner = q != null;
+        if (hasPartner) {
+            partnerUp = q.health > 0;
+            partnerHealth = Math.max(q.health, 0);
+            partnerBombs = q.bombs;
+            partnerX = q.x;
+            partnerY = q.y;
+            partnerPrevX = q.prevX;
+            partnerPrevY = q.prevY;
+            partnerFocusMode = q.focusMode;
+            partnerHitBoxX = q.hitBoxX();
+            partnerHitBoxY = q.hitBoxY();
+            partnerHitBoxWidth = q.hitBoxWidth();
+            partnerHitBoxHeight = q.hitBoxHeight();
+        }
+
+        // Only what is in or near the view; everything when the view covers the arena
+        int left = cameraX(1.0) - CULL_MARGIN, top = cameraY(1.0) - CULL_MARGIN;
+        int right = left + viewWidth + 2 * CULL_MARGIN, bottom = top + viewHeight + 2 * CULL_MARGIN;
+        boolean all = viewWidth >= arenaWidth && viewHeight >= arenaHeight;
+
+        int enemies = world.enemies.size();
+        if (enemyX.length < enemies) {
+            int size = enemies * 2;
+            enemyX = new int[size];
+            enemyY = new int[size];
+            enemyPrevX = new int[size];
+            enemyPrevY = new int[size];
+            enemySprite = new int[size];
+        }
+        int n = 0;
+        for (EnemyArchetype a : world.enemies.archetypes) {
+            for (int i = 0; i < a.count; i++) {
+                if (!all && !Collision.boxesOverlap(a.x[i], a.y[i], a.width, a.height, left, top, right - left, bottom - top)) continue;
+                enemyX[n] = a.x[i];
+                enemyY[n] = a.y[i];
+                enemyPrevX[n] = a.prevX[i];
+                enemyPrevY[n] = a.prevY[i];
+                enemySprite[n] = a.sprite;
+                n++;
+            }
+        }
+        enemyCount = n;
+
+        if (all) {
+            enemyBullets.copyFrom(world.enemyBullets);
+            playerBullets.copyFrom(world.playerBullets);
+        } else {
+            enemyBullets.copyFrom(world.enemyBullets, left, top, right, bottom);
+            playerBullets.copyFrom(world.playerBullets, left, top, right, bottom);
+        }
+
+        PowerUpPool u = world.powerUps;
+        if (powerUpX.length < u.count) {
+            int size = u.count * 2;
+            powerUpX = new int[size];
+            powerUpY = new int[size];
+            powerUpPrevY = new int[size];
+            powerUpType = new int[size];
+        }
+        n = 0;
+        for (int k = 0; k < u.count; k++) {
+            int size = PowerUpPool.SIZE;
+            if (!all && !Collision.boxesOverlap(u.x[k], u.y[k], size, size, left, top, right - left, bottom - top)) continue;
+            powerUpX[n] = u.x[k];
+            powerUpY[n] = u.y[k];
+            powerUpPrevY[n] = u.y[k] - PowerUpPool.SPEED;
+            powerUpType[n] = u.type[k];
+            n++;
+        }
+        powerUpCount = n;
+
+        ParticleSystem ps = world.particles;
+        int mask = ps.capacity() - 1;
+        n = 0;
+        for (int k = 0; k < ps.count; k++) {
+            int i = (ps.head + k) & mask;
+            if (ps.life[i] <= 0) continue;
+            if (!all && (ps.x[i] < left || ps.x[i] >= right || ps.y[i] < top || ps.y[i] >= bottom)) continue;
+            particleX[n] = ps.x[i];
+            particleY[n] = ps.y[i];
+            particleDx[n] = ps.dx[i];
+            particleDy[n] = ps.dy[i];
+            particleKind[n] = ps.kind[i];
+            n++;
+        }
+        particleCount = n;
+    }
+
+    // The camera's top-left corner in the arena, following the interpolated player
+    int cameraX(double alpha) {
+        int x = followPartner ? GameLoop.lerp(partnerPrevX, partnerX, alpha) : GameLoop.lerp(playerPrevX, playerX, alpha);
+        return clampCamera(x + followWidth / 2 - viewWidth / 2, arenaWidth - viewWidth);
+    }
+
+    int cameraY(double alpha) {
+        int y = followPartner ? GameLoop.lerp(partnerPrevY, partnerY, alpha) : GameLoop.lerp(playerPrevY, playerY, alpha);
+        return clampCamera(y + followHeight / 2 - viewHeight / 2, arenaHeight - viewHeight);
+    }
+
+    private static int clampCamera(int position, int max) {
+        return position > max ? Math.max(max, 0) : Math.max(position, 0);
+    }
+}
+
+// --------------------
+// FrameExchange Class
+// --------------------
+// Lock-free triple buffer between one producer (the simulation thread) and one
+// consumer (the render thread). The producer fills its back frame and swaps it
+// into the shared middle slot. The consumer swaps its front frame for the middle
+// one whenever a newer frame is waiting there. Neither side ever waits for the
+// other, and the consumer always gets the most recently published frame.
+class FrameExchange {
+    private static final int FRESH = 4; // set on the middle index until the consumer takes it
+
+    private final RenderFrame[] frames;
+    private final java.util.concurrent.atomic.AtomicInteger middle = new java.util.concurrent.atomic.AtomicInteger(1);
+    private int back = 0;  // producer only
+    private int front = 2; // consumer only
+
+    public FrameExchange(GameWorld world) {
+        frames = new RenderFrame[] {new RenderFrame(world), new RenderFrame(world), new RenderFrame(world)};
+    }
+
+    // Sets every frame's view size; call before the exchange is in use
+    public void setView(int width, int height) {
+        for (RenderFrame f : frames) {
+            f.viewWidth = width;
+            f.viewHeight = height;
+        }
+    }
+
+    // The frame the producer may fill
+    public RenderFrame back() {
+        return frames[back];
+    }
+
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    // The newest published frame; the same one as last time if nothing new was published
+    public RenderFrame latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & 3;
+        }
+        return frames[front];
+    }
+}
+
+// --------------------
+// InputQueue Class
+// --------------------
+// Lock-free single-producer/single-consumer ring of key events, each stamped
+// with the tick it applies to and the System.nanoTime() it happened at. The EDT
+// offers; the simulation thread starts each tick by closing the queue to it and
+// polling what was offered before. The open tick and the write index share one
+// atomic word, so an event is stamped with the tick that is open when it
+// becomes visible, and that is always the tick that polls it. An event is packed
+// into one long: tick in the high 32 bits, then key code and a pressed bit.
+class InputQueue {
+    private final long[] ring;
+    private final long[] times;
+    private final int mask;
+    private long polledNanos; // consumer only: the time of the event poll() last returned
+    private int end;          // consumer only: the write index when the current tick closed
+    private final java.util.concurrent.atomic.AtomicInteger head = new java.util.concurrent.atomic.AtomicInteger(); // next slot to read
+    // The open tick in the high 32 bits, the next slot to write in the low 32
+    private final java.util.concurrent.atomic.AtomicLong state = new java.util.concurrent.atomic.AtomicLong();
+
+    // capacity is rounded up to a power of two
+    public InputQueue(int capacity) {
+        ring = new long[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+        times = new long[ring.length];
+        mask = ring.length - 1;
+    }
+
+    // Producer side: returns the tick the event is stamped with, or -1 if the
+    // queue is full and the event was dropped
+    public long offer(int keyCode, boolean pressed, long nanos) {
+        while (true) {
+            long s = state.get();
+            int t = (int) s;
+            if (t - head.get() == ring.length) return -1;
+            long tick = s >>> 32;
+            ring[t & mask] = tick << 32 | (keyCode & 0xFFFF) << 1 | (pressed ? 1 : 0);
+            times[t & mask] = nanos;
+            // Fails only if the consumer closed the tick meanwhile; the slot is rewritten with the next one
+            if (state.compareAndSet(s, s & 0xFFFFFFFF00000000L | (t + 1) & 0xFFFFFFFFL)) return tick;
+        }
+    }
+
+    // Consumer side, at the start of each tick: events offered from now on are
+    // stamped tick + 1, and poll() returns those offered until now, all
+    // stamped tick. Ticks must be started in order from 0.
+    public void startTick(long tick) {
+        long s;
+        do {
+            s = state.get();
+        } while (!state.compareAndSet(s, (tick + 1 & 0x7FFFFFFFL) << 32 | s & 0xFFFFFFFFL));
+        end = (int) s;
+    }
+
+    // Consumer side: the next event for the started tick, or -1 if there is none
+    public long poll() {
+        int h = head.get();
+        if (h == end) return -1;
+        long event = ring[h & mask];
+        polledNanos = times[h & mask];
+        head.lazySet(h + 1);
+        return event;
+    }
+
+    // When the event last returned by poll() happened
+    public long polledNanos() {
+        return polledNanos;
+    }
+
+    static long tick(long event) {
+        return event >>> 32;
+    }
+
+    static int keyCode(long event) {
+        return (int) (event >>> 1) & 0xFFFF;
+    }
+
+    static boolean pressed(long event) {
+        return (event & 1) != 0;
+    }
+}
+
+// --------------------
+// QualityGovernor Class
+// --------------------
+// Keeps play smooth on slow machines by shedding cosmetic load. Each tick it
+// is given the cost of that tick and of the last rendered frame. They run on
+// separate threads, so each is smoothed and measured against its own period:
+// the tick period and the frame period. When either stays above 90% of its
+// period for half a second, it drops one quality level. When both stay below
+// 60% for two seconds, it goes back up one level. Levels only touch things that never affect play, so replays
+// and checksums are unchanged: the particle cap, the player's trail, and how
+// many starfield layers are drawn.
+class QualityGovernor {
+    static final int LEVELS = 4;
+    private static final int[] PARTICLE_CAP = {4096, 1024, 256, 64};
+    private static final boolean[] TRAILS = {true, true, false, false};
+    private static final int[] STAR_LAYERS = {3, 3, 2, 1};
+    private static final int DEGRADE_TICKS = 30, RESTORE_TICKS = 120;
+
+    private final long tickBudgetNanos, frameBudgetNanos;
+    private final boolean pinned;
+    int level;
+    private double tickAverage, renderAverage;
+    private int overTicks, underTicks;
+
+    // pinnedLevel of 0 to LEVELS - 1 fixes the level; anything else adapts. An
+    // uncapped renderer (frameNanos 0) is given a frame per tick.
+    public QualityGovernor(long tickNanos, long frameNanos, int pinnedLevel) {
+        this.tickBudgetNanos = tickNanos;
+        this.frameBudgetNanos = frameNanos > 0 ? frameNanos : tickNanos;
+        this.pinned = pinnedLevel >= 0 && pinnedLevel < LEVELS;
+        this.level = pinned ? pinnedLevel : 0;
+    }
+
+    // Returns true when the level changed and should be applied
+    public boolean sample(long tickNanos, long renderNanos) {
+        if (pinned) return false;
+        tickAverage += (tickNanos - tickAverage) * 0.1;
+        renderAverage += (renderNanos - renderAverage) * 0.1;
+        // The busier thread, as a fraction of its period
+        double load = Math.max(tickAverage / tickBudgetNanos, renderAverage / frameBudgetNanos);
+        if (load > 0.9) {
+            underTicks = 0;
+            if (++overTicks >= DEGRADE_TICKS && level < LEVELS - 1) {
+                overTicks = 0;
+                level++;
+                return true;
+            }
+        } else if (load < 0.6) {
+            overTicks = 0;
+            if (++underTicks >= RESTORE_TICKS && level > 0) {
+                underTicks = 0;
+                level--;
+                return true;
+            }
+        } else {
+            overTicks = 0;
+            underTicks = 0;
+        }
+        return false;
+    }
+
+    public void apply(GameWorld world) {
+        world.particles.setCap(PARTICLE_CAP[level]);
+        world.trails = TRAILS[level];
+    }
+
+    public int starLayers() {
+        return STAR_LAYERS[level];
+    }
+}
+
+// --------------------
+// Player Class
+// --------------------
+class Player {
+    int x, y;
+    int width = 20, height = 20;
+    int health = 5;
+    int maxHealth = 5;
+    int bombs = 3;
+    int speed = 5;
+    int focusSpeed = 2;
+    boolean up, down, left, right;
+    boolean focusMode = false;
+    int prevX, prevY; // position before the last update, for interpolated rendering
+
+    int baseShootDelay = 10;
+    int shootDelay = baseShootDelay;
+    int shootTimer = 0;
+    int fireRateBoostTimer = 0;
+
+    public Player(int x, int y) {
+        this.x = x;
+        this.y = y;
+        this.prevX = x;
+        this.prevY = y;
+    }
+
+    public void savePosition() {
+        prevX = x;
+        prevY = y;
+    }
+
+    public void update(int arenaWidth, int arenaHeight) {
+        int currentSpeed = focusMode ? focusSpeed : speed;
+        if (left) x -= currentSpeed;
+        if (right) x += currentSpeed;
+        if (up) y -= currentSpeed;
+        if (down) y += currentSpeed;
+        if (x < 0) x = 0;
+        if (x > arenaWidth - width) x = arenaWidth - width;
+        if (y < 0) y = 0;
+        if (y > arenaHeight - height) y = arenaHeight - height;
+    }
+
+    public boolean canShoot() {
+        return shootTimer <= 0;
+    }
+
+    public void resetShootTimer() {
+        shootTimer = shootDelay;
+    }
+
+    public void decrementShootTimer() {
+        if (shootTimer > 0) shootTimer--;
+    }
+
+    // In focus mode, the hitbox is smaller for precise dodging
+    static final int FOCUS_HITBOX_SIZE = 8;
+
+    public int hitBoxX() {
+        return focusMode ? x + width/2 - FOCUS_HITBOX_SIZE/2 : x;
+    }
+
+    public int hitBoxY() {
+        return focusMode ? y + height/2 - FOCUS_HITBOX_SIZE/2 : y;
+    }
+
+    public int hitBoxWidth() {
+        return focusMode ? FOCUS_HITBOX_SIZE : width;
+    }
+
+    public int hitBoxHeight() {
+        return focusMode ? FOCUS_HITBOX_SIZE : height;
+    }
+
+    // Damage test against the (possibly focused) hitbox
+    public boolean hitBoxIntersectsCircle(double cx, double cy, double r) {
+        return Collision.circleIntersectsBox(cx, cy, r, hitBoxX(), hitBoxY(), hitBoxWidth(), hitBoxHeight());
+    }
+
+    // Damage test for a circle moving from (x0, y0) to (x1, y1) relative to the hitbox
+    public boolean hitBoxSweptByCircle(double x0, double y0, double x1, double y1, double r) {
+        return Collision.sweptCircleIntersectsBox(x0, y0, x1, y1, r, hitBoxX(), hitBoxY(), hitBoxWidth(), hitBoxHeight());
+    }
+
+    // Pickup test against the full body
+    public boolean intersectsCircle(double cx, double cy, double r) {
+        return Collision.circleIntersectsBox(cx, cy, r, x, y, width, height);
+    }
+
+    public boolean sweptByCircle(double x0, double y0, double x1, double y1, double r) {
+        return Collision.sweptCircleIntersectsBox(x0, y0, x1, y1, r, x, y, width, height);
+    }
+}
+
+// --------------------
+// EnemyArchetype Class
+// --------------------
+// One table of the EnemyStore: every enemy of one type. Each component is a
+// primitive array, and enemy i is index i across them. What all enemies of the
+// type share is stored once: size, motion, firing cadence, muzzle and sprite.
+// Systems walk the columns in a straight loop and pick behaviour once per
+// table, not per enemy.
+final class EnemyArchetype {
+    // Motion systems
+    static final int BOUNCE = 0; // sideways at speed, reversing at the walls
+    static final int WEAVE = 1;  // BOUNCE, while bobbing around its spawn row as phase advances
+
+    final int motion, width, height;
+    final int patternPeriod; // frames each entry of an enemy's pattern list is fired for
+    final int muzzleY;       // bullets leave at (x + width / 2, y + muzzleY)
+    final int sprite;
+    // Shaped hit zones in priority order and the damage a bullet landing on each
+    // does (0 for armour); null means the whole box is one zone doing 1 damage
+    private final HitMask[] zones;
+    private final int[] zoneDamage;
+
+    static final int MISS = -1;
+
+    int count;
+    int[] x, y, prevX, prevY; // prev: position at the start of the step, for interpolation and swept tests
+    int[] health, shootDelay, shootTimer;
+    int[] speed, direction;
+    double[] phase;           // WEAVE only
+    BulletPattern[][] patterns;
+
+    EnemyArchetype(int motion, int width, int height, int patternPeriod, int muzzleY, int sprite) {
+        this(motion, width, height, patternPeriod, muzzleY, sprite, null, null);
+    }
+
+    EnemyArchetype(int motion, int width, int height, int patternPeriod, int muzzleY, int sprite,
+                   HitMask[] zones, int[] zoneDamage) {
+        this.motion = motion;
+        this.width = width;
+        this.height = height;
+        this.patternPeriod = patternPeriod;
+        this.muzzleY = muzzleY;
+        this.sprite = sprite;
+        this.zones = zones;
+        this.zoneDamage = zoneDamage;
+        allocate(8);
+    }
+
+    private void allocate(int n) {
+        x = java.util.Arrays.copyOf(x == null ? new int[0] : x, n);
+        y = java.util.Arrays.copyOf(y == null ? new int[0] : y, n);
+        prevX = java.util.Arrays.copyOf(prevX == null ? new int[0] : prevX, n);
+        prevY = java.util.Arrays.copyOf(prevY == null ? new int[0] : prevY, n);
+        health = java.util.Arrays.copyOf(health == null ? new int[0] : health, n);
+        shootDelay = java.util.Arrays.copyOf(shootDelay == null ? new int[0] : shootDelay, n);
+        shootTimer = java.util.Arrays.copyOf(shootTimer == null ? new int[0] : shootTimer, n);
+        speed = java.util.Arrays.copyOf(speed == null ? new int[0] : speed, n);
+        direction = java.util.Arrays.copyOf(direction == null ? new int[0] : direction, n);
+        if (motion == WEAVE) phase = java.util.Arrays.copyOf(phase == null ? new double[0] : phase, n);
+        patterns = java.util.Arrays.copyOf(patterns == null ? new BulletPattern[0][] : patterns, n);
+    }
+
+    // Appends an enemy standing still at (x, y) and returns its index
+    int add(int x, int y, int health, int shootDelay, int speed, BulletPattern[] patterns) {
+        if (count == this.x.length) allocate(count * 2);
+        int i = count++;
+        this.x[i] = prevX[i] = x;
+        this.y[i] = prevY[i] = y;
+        this.health[i] = health;
+        this.shootDelay[i] = shootDelay;
+        this.shootTimer[i] = shootDelay;
+        this.speed[i] = speed;
+        this.direction[i] = 1;
+        if (phase != null) phase[i] = 0;
+        this.patterns[i] = patterns;
+        return i;
+    }
+
+    void savePositions() {
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
+    }
+
+    void move(int arenaWidth) {
+        for (int i = 0; i < count; i++) {
+            if (motion == WEAVE) {
+                // Applied as a change so the enemy bobs around the row it spawned on
+                int bob = (int)(20 * Math.sin(phase[i]));
+                phase[i] += 0.05;
+                y[i] += (int)(20 * Math.sin(phase[i])) - bob;
+            }
+            x[i] += speed[i] * direction[i];
+            if (x[i] < 0 || x[i] + width > arenaWidth) {
+                direction[i] = -direction[i];
+            }
+        }
+    }
+
+    // Fires every enemy whose timer has run out, then counts all timers down.
+    // Enemies out of the LOD's range are dormant: they neither fire nor count down.
+    void shoot(BulletPool bullets, int frameCount, double targetX, double targetY, SimulationLod lod) {
+        for (int i = 0; i < count; i++) {
+            if (!lod.near(x[i] + width / 2, y[i] + height / 2)) continue;
+            if (shootTimer[i] <= 0) {
+                fire(i, bullets, frameCount, targetX, targetY);
+                shootTimer[i] = shootDelay[i];
+            }
+            if (shootTimer[i] > 0) shootTimer[i]--;
+        }
+    }
+
+    // Fires the pattern enemy i has scheduled for this frame; aimed patterns aim at (targetX, targetY)
+    void fire(int i, BulletPool bullets, int frameCount, double targetX, double targetY) {
+        BulletPattern[] list = patterns[i];
+        BulletPattern pattern = list[(frameCount / patternPeriod) % list.length];
+        pattern.fire(bullets, x[i] + width / 2, y[i] + muzzleY, frameCount, targetX, targetY);
+    }
+
+    // The damage a bullet whose centre moves from (x0, y0) to (x1, y1) relative to
+    // enemy i does, or MISS. The swept box test is exact for an unzoned enemy and a
+    // filter for a zoned one, which then steps the bullet's mask along the path at
+    // most a radius at a time; the first zone touched takes the hit.
+    int bulletDamage(int i, double x0, double y0, double x1, double y1) {
+        double r = BulletPool.RADIUS;
+        if (!Collision.sweptCircleIntersectsBox(x0, y0, x1, y1, r, x[i], y[i], width, height)) return MISS;
+        if (zones == null) return 1;
+        int steps = (int) Math.ceil(Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0)) / r);
+        for (int s = 0; s <= steps; s++) {
+            double t = steps == 0 ? 1 : (double) s / steps;
+            int bx = (int) Math.round(x0 + (x1 - x0) * t - r) - x[i];
+            int by = (int) Math.round(y0 + (y1 - y0) * t - r) - y[i];
+            for (int z = 0; z < zones.length; z++) {
+                if (zones[z].overlaps(BulletPool.MASK, bx, by)) return zoneDamage[z];
+            }
+        }
+        return MISS;
+    }
+
+    // Drops enemies with no health left, keeping the rest in order
+    void removeDead() {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (health[i] <= 0) continue;
+            if (n != i) {
+                x[n] = x[i];
+                y[n] = y[i];
+                prevX[n] = prevX[i];
+                prevY[n] = prevY[i];
+                health[n] = health[i];
+                shootDelay[n] = shootDelay[i];
+                shootTimer[n] = shootTimer[i];
+                speed[n] = speed[i];
+                direction[n] = direction[i];
+                if (phase != null) phase[n] = phase[i];
+                patterns[n] = patterns[i];
+            }
+            n++;
+        }
+        for (int i = n; i < count; i++) patterns[i] = null;
+        count = n;
+    }
+}
+
+// --------------------
+// EnemyStore Class
+// --------------------
+// All enemies, one EnemyArchetype table per enemy type. Together the tables
+// form one list, in archetype order, and a global index g counts along it. That
+// order is the order enemies move and fire in, and the order of hit priority.
+// Bosses come first, matching the order waves spawn them in. A new enemy type
+// is a new table here, plus a motion case if it needs one.
+class EnemyStore {
+    // Endless waves past 4 fire denser normal rings: 2 more bullets a wave, up to 48
+    static final BulletPattern[] NORMAL_PATTERNS = { BulletPattern.compile("ring 6 3.0") };
+    private static final BulletPattern[][] ENDLESS_PATTERNS = new BulletPattern[21][];
+    static {
+        for (int k = 0; k < ENDLESS_PATTERNS.length; k++) {
+            ENDLESS_PATTERNS[k] = new BulletPattern[] { BulletPattern.compile("ring " + (8 + 2 * k) + " 3.0") };
+        }
+    }
+    // The boss alternates between a fast ring and a slower rotating spiral every 120 frames
+    static final BulletPattern[] BOSS_PATTERNS = {
+        BulletPattern.compile("ring 12 3.0"),
+        BulletPattern.compile("spiral 12 2.5 1"),
+    };
+
+    // The boss's outline, armour plates and core, used for both its sprite and its
+    // hit masks. Plates on the wings absorb bullets; the exposed core takes double damage.
+    static final java.awt.Shape BOSS_HULL = new Polygon(
+            new int[] {0, 20, 100, 120, 120, 90, 30, 0}, new int[] {20, 0, 0, 20, 40, 60, 60, 40}, 8);
+    static final java.awt.Shape BOSS_ARMOR = bossArmor();
+    static final java.awt.Shape BOSS_CORE = new java.awt.geom.Ellipse2D.Double(50, 42, 20, 18);
+
+    private static java.awt.Shape bossArmor() {
+        java.awt.geom.Area plates = new java.awt.geom.Area(new Rectangle(0, 14, 26, 30));
+        plates.add(new java.awt.geom.Area(new Rectangle(94, 14, 26, 30)));
+        plates.intersect(new java.awt.geom.Area(BOSS_HULL));
+        return plates;
+    }
+
+    final EnemyArchetype bosses = new EnemyArchetype(EnemyArchetype.WEAVE, 120, 60, 120, 30, RenderResources.BOSS,
+            new HitMask[] {HitMask.of(BOSS_ARMOR, 120, 60), HitMask.of(BOSS_CORE, 120, 60), HitMask.of(BOSS_HULL, 120, 60)},
+            new int[] {0, 2, 1});
+    // Normal enemies step through a stage's pattern lists every 120 frames, like the
+    // boss; stepping every frame, an even shot delay kept picking the same entry
+    final EnemyArchetype normals = new EnemyArchetype(EnemyArchetype.BOUNCE, 40, 40, 120, 40, RenderResources.NORMAL_ENEMY);
+    final EnemyArchetype[] archetypes = {bosses, normals};
+
+    static BulletPattern[] normalPatterns(int wave) {
+        return wave <= 4 ? NORMAL_PATTERNS : ENDLESS_PATTERNS[Math.min(wave - 5, ENDLESS_PATTERNS.length - 1)];
+    }
+
+    // A normal enemy with the wave's stats; returns its index in normals
+    public int addNormal(int x, int y, int wave, Balance balance) {
+        return normals.add(x, y,
+                balance.normalHealth + balance.normalHealthPerWave * wave,
+                Math.max(balance.normalShootDelay - wave * balance.normalShootDelayPerWave, balance.normalMinShootDelay),
+                balance.normalSpeed + balance.normalSpeedPerWave * wave,
+                normalPatterns(wave));
+    }
+
+    // Returns the boss's index in bosses
+    public int addBoss(int x, int y, Balance balance) {
+        return bosses.add(x, y, balance.bossHealth, balance.bossShootDelay, 2, BOSS_PATTERNS);
+    }
+
+    public int size() {
+        int n = 0;
+        for (EnemyArchetype a : archetypes) n += a.count;
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        for (EnemyArchetype a : archetypes) {
+            a.count = 0;
+            java.util.Arrays.fill(a.patterns, null);
+        }
+    }
+
+    // The table holding enemy g, and g's index within it
+    public EnemyArchetype archetypeOf(int g) {
+        for (EnemyArchetype a : archetypes) {
+            if (g < a.count) return a;
+            g -= a.count;
+        }
+        throw new IndexOutOfBoundsException("enemy " + g);
+    }
+
+    public int indexOf(int g) {
+        for (EnemyArchetype a : archetypes) {
+            if (g < a.count) return g;
+            g -= a.count;
+        }
+        throw new IndexOutOfBoundsException("enemy " + g);
+    }
+
+    public void savePositions() {
+        for (EnemyArchetype a : archetypes) a.savePositions();
+    }
+
+    // One frame: every enemy moves, then every enemy that is due fires
+    public void update(int arenaWidth, BulletPool bullets, int frameCount, double targetX, double targetY, SimulationLod lod) {
+        for (EnemyArchetype a : archetypes) a.move(arenaWidth);
+        for (EnemyArchetype a : archetypes) a.shoot(bullets, frameCount, targetX, targetY, lod);
+    }
+
+    public void removeDead() {
+        for (EnemyArchetype a : archetypes) a.removeDead();
+    }
+}
+
+// --------------------
+// StageScript Class
+// --------------------
+// The waves of a stage as a timeline of events, each keyed by the frame it is
+// due relative to the start of its wave. Compiled from a text script into a
+// compact binary form that is memory-mapped and read in place, so even a
+// stage with thousands of events loads at once and allocates nothing per event.
+//
+// Text form, one statement a line, '#' starts a comment:
+//   pattern <name> <spec>[; <spec>...]   a pattern list, each entry fired for 120 frames in turn
+//   wave                                  starts the next wave
+//   <frame> spawn <normal|boss> <x> <y> [pattern=<name>] [speed=<n>] [health=<n>]
+//   <frame> pattern <normal|boss> <name>  every live enemy of that kind switches pattern
+//   <frame> move <normal|boss> <speed>    every live enemy of that kind changes speed
+// Spawned enemies get the wave's stats unless the event overrides them.
+//
+// Binary form (big-endian): magic, version, the pattern specs, then per wave
+// its first event and event count, then EVENT_BYTES per event.
+final class StageScript {
+    private static final int MAGIC = 0x42485347; // "BHSG"
+    private static final int VERSION = 1;
+    private static final int EVENT_BYTES = 16;
+
+    // Event types and the kinds of enemy they act on
+    static final int SPAWN = 0, PATTERN = 1, MOVE = 2;
+    static final int NORMAL = 0, BOSS = 1;
+
+    // Waves 1-3 are a row of normal enemies evenly spaced across a 600-wide
+    // arena, one more each wave; wave 4 is the boss
+    private static final int TILE = 600;
+    private static final int[][] DEFAULT_ROWS = {{130, 280, 430}, {100, 220, 340, 460}, {80, 180, 280, 380, 480}};
+    private static final int BOSS_X = 200, ROW_Y = 50;
+    static final StageScript DEFAULT = compile(defaultScript(1, 1, 0, 0));
+
+    // The built-in stage for an arena of the given size. An arena at least two
+    // 600px tiles across or down gets the waves on every tile, so there is
+    // something to fight wherever the players go; the boss appears only on the
+    // tile the players start on, with wave 3's row on every other tile.
+    static StageScript forArena(int width, int height) {
+        int cols = Math.max(1, width / TILE), rows = Math.max(1, height / TILE);
+        if (cols == 1 && rows == 1) return DEFAULT;
+        // Players start centred, 100px above the bottom edge
+        int startCol = Math.min(width / 2 / TILE, cols - 1), startRow = Math.min((height - 100) / TILE, rows - 1);
+        return compile(defaultScript(cols, rows, startCol, startRow));
+    }
+
+    private static String defaultScript(int cols, int rows, int bossCol, int bossRow) {
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w <= DEFAULT_ROWS.length; w++) {
+            text.append("wave\n");
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    int tx = c * TILE, ty = r * TILE;
+                    if (w < DEFAULT_ROWS.length || c != bossCol || r != bossRow) {
+                        for (int x : DEFAULT_ROWS[Math.min(w, DEFAULT_ROWS.length - 1)]) {
+                            text.append("0 spawn normal ").append(tx + x).append(' ').append(ty + ROW_Y).append('\n');
+                        }
+                    } else {
+                        text.append("0 spawn boss ").append(tx + BOSS_X).append(' ').append(ty + ROW_Y).append('\n');
+                    }
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private final ByteBuffer buf;
+    private final BulletPattern[][] patterns;
+    private final int[] firstEvent, eventCount;
+    private final int eventsOffset;
+
+    // Everything a damaged file could get wrong is an IllegalArgumentException
+    private StageScript(ByteBuffer buf) {
+        this.buf = buf;
+        if (buf.remaining() < 8 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a compiled stage");
+        }
+        buf.position(8);
+        patterns = new BulletPattern[count(buf, 2, "pattern lists")][];
+        for (int p = 0; p < patterns.length; p++) {
+            byte[] spec = new byte[need(buf, 2).getShort() & 0xFFFF];
+            need(buf, spec.length).get(spec);
+            patterns[p] = compilePatterns(new String(spec, java.nio.charset.StandardCharsets.UTF_8));
+        }
+        int waves = count(buf, 8, "waves");
+        if (waves == 0) throw new IllegalArgumentException("stage has no waves");
+        firstEvent = new int[waves];
+        eventCount = new int[waves];
+        for (int w = 0; w < waves; w++) {
+            firstEvent[w] = buf.getInt();
+            eventCount[w] = buf.getInt();
+        }
+        eventsOffset = buf.position();
+        // Checked once here, so the game can read events unchecked
+        int events = (buf.limit() - eventsOffset) / EVENT_BYTES;
+        for (int w = 0; w < waves; w++) {
+            if (firstEvent[w] < 0 || eventCount[w] < 0 || eventCount[w] > events - firstEvent[w]) {
+                throw new IllegalArgumentException("wave " + (w + 1) + " runs past the end of the stage");
+            }
+        }
+        for (int e = 0; e < events; e++) {
+            int type = type(e), pattern = pattern(e);
+            if (tick(e) < 0 || type < SPAWN || type > MOVE || kind(e) < NORMAL || kind(e) > BOSS
+                    || pattern >= patterns.length || pattern < (type == PATTERN ? 0 : -1)) {
+                throw new IllegalArgumentException("bad stage event " + e);
+            }
+        }
+    }
+
+    private static ByteBuffer need(ByteBuffer buf, int bytes) {
+        if (buf.remaining() < bytes) throw new IllegalArgumentException("stage is truncated");
+        return buf;
+    }
+
+    // Reads a count of entries that take at least entryBytes each, which must all fit
+    private static int count(ByteBuffer buf, int entryBytes, String what) {
+        int n = need(buf, 4).getInt();
+        if (n < 0 || n > buf.remaining() / entryBytes) throw new IllegalArgumentException("bad number of " + what + ": " + n);
+        return n;
+    }
+
+    // Maps a compiled stage, or compiles a text script
+    static StageScript load(java.io.File file) throws java.io.IOException {
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file.toPath())) {
+            ByteBuffer buf = channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() >= 4 && buf.getInt(0) == MAGIC) return new StageScript(buf);
+        }
+        return compile(new String(java.nio.file.Files.readAllBytes(file.toPath()), java.nio.charset.StandardCharsets.UTF_8));
+    }
+
+    // The stage named by -Dbullethell.stage, or the built-in one for the arena.
+    // Replays and both netplay peers must use the same stage as the run they follow.
+    static StageScript configured(int width, int height) {
+        String path = System.getProperty("bullethell.stage");
+        if (path == null) return forArena(width, height);
+        try {
+            return load(new java.io.File(path));
+        } catch (java.io.IOException | IllegalArgumentException ex) {
+            System.err.println("Could not load stage " + path + ", using the default: " + ex);
+            return forArena(width, height);
+        }
+    }
+
+    static StageScript compile(String text) {
+        return new StageScript(ByteBuffer.wrap(toBinary(text)));
+    }
+
+    // Compiles a text script into the binary form
+    static byte[] toBinary(String text) {
+        List<String> names = new ArrayList<>(), specs = new ArrayList<>();
+        List<int[]> waves = new ArrayList<>(); // first event, count
+        java.io.ByteArrayOutputStream events = new java.io.ByteArrayOutputStream();
+        ByteBuffer event = ByteBuffer.allocate(EVENT_BYTES);
+        int count = 0;
+        String[] lines = text.split("\n");
+        for (int n = 0; n < lines.length; n++) {
+            String line = lines[n].replaceFirst("#.*", "").trim();
+            if (line.isEmpty()) continue;
+            String[] f = line.split("\\s+");
+            try {
+                if (f[0].equals("pattern") && f.length > 2) {
+                    String spec = line.substring(line.indexOf(f[1], "pattern".length()) + f[1].length()).trim();
+                    compilePatterns(spec);
+                    names.add(f[1]);
+                    specs.add(spec);
+                    continue;
+                }
+                if (f[0].equals("wave") && f.length == 1) {
+                    waves.add(new int[] {count, 0});
+                    continue;
+                }
+                if (waves.isEmpty()) throw new IllegalArgumentException("event before the first wave");
+                int tick = Integer.parseInt(f[0]);
+                if (tick < 0) throw new IllegalArgumentException("negative frame");
+                if (f.length < 3) throw new IllegalArgumentException("expected <frame> <event> <normal|boss> ...");
+                int kind = f[2].equals("boss") ? BOSS : f[2].equals("normal") ? NORMAL : -1;
+                if (kind < 0) throw new IllegalArgumentException("unknown enemy kind " + f[2]);
+                int type, pattern = -1, x = 0, y = 0, speed = -1, health = 0;
+                if (f[1].equals("spawn") && f.length >= 5) {
+                    type = SPAWN;
+                    x = Integer.parseInt(f[3]);
+                    y = Integer.parseInt(f[4]);
+                    for (int k = 5; k < f.length; k++) {
+                        String[] kv = f[k].split("=");
+                        if (kv.length != 2) throw new IllegalArgumentException("expected name=value: " + f[k]);
+                        if (kv[0].equals("pattern")) {
+                            pattern = patternIndex(names, kv[1]);
+                        } else if (kv[0].equals("speed")) {
+                            speed = Integer.parseInt(kv[1]);
+                        } else if (kv[0].equals("health")) {
+                            health = Integer.parseInt(kv[1]);
+                        } else {
+                            throw new IllegalArgumentException("unknown spawn option " + kv[0]);
+                        }
+                    }
+                } else if (f[1].equals("pattern") && f.length == 4) {
+                    type = PATTERN;
+                    pattern = patternIndex(names, f[3]);
+                } else if (f[1].equals("move") && f.length == 4) {
+                    type = MOVE;
+                    speed = Integer.parseInt(f[3]);
+                } else {
+                    throw new IllegalArgumentException("bad event");
+                }
+                event.clear();
+                event.putInt(tick).put((byte) type).put((byte) kind).putShort((short) pattern)
+                        .putShort(toShort(x)).putShort(toShort(y)).putShort(toShort(speed)).putShort(toShort(health));
+                events.write(event.array(), 0, EVENT_BYTES);
+                waves.get(waves.size() - 1)[1]++;
+                count++;
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("stage line " + (n + 1) + ": " + ex.getMessage() + ": '" + line + "'");
+            }
+        }
+
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream out = new java.io.DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(specs.size());
+            for (String spec : specs) {
+                byte[] utf = spec.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                out.writeShort(utf.length);
+                out.write(utf);
+            }
+            out.writeInt(waves.size());
+            for (int[] w : waves) {
+                out.writeInt(w[0]);
+                out.writeInt(w[1]);
+            }
+            events.writeTo(out);
+        } catch (java.io.IOException ex) {
+            throw new IllegalStateException(ex); // in memory, can't happen
+        }
+        return bytes.toByteArray();
+    }
+
+    private static short toShort(int value) {
+        if (value != (short) value) throw new IllegalArgumentException(value + " is out of range");
+        return (short) value;
+    }
+
+    private static int patternIndex(List<String> names, String name) {
+        int index = names.indexOf(name);
+        if (index < 0) throw new IllegalArgumentException("unknown pattern " + name);
+        return index;
+    }
+
+    private static BulletPattern[] compilePatterns(String specs) {
+        String[] parts = specs.split(";");
+        BulletPattern[] list = new BulletPattern[parts.length];
+        for (int k = 0; k < parts.length; k++) list[k] = BulletPattern.compile(parts[k].trim());
+        return list;
+    }
+
+    int waves() {
+        return firstEvent.length;
+    }
+
+    // Events of wave w (1-based) are [firstEvent(w), firstEvent(w) + eventCount(w))
+    int firstEvent(int wave) {
+        return firstEvent[wave - 1];
+    }
+
+    int eventCount(int wave) {
+        return eventCount[wave - 1];
+    }
+
+    // Fields of event e; a pattern of -1, speed of -1 or health of 0 keeps the default
+    int tick(int e) {
+        return buf.getInt(eventsOffset + e * EVENT_BYTES);
+    }
+
+    int type(int e) {
+        return buf.get(eventsOffset + e * EVENT_BYTES + 4);
+    }
+
+    int kind(int e) {
+        return buf.get(eventsOffset + e * EVENT_BYTES + 5);
+    }
+
+    int pattern(int e) {
+        return buf.getShort(eventsOffset + e * EVENT_BYTES + 6);
+    }
+
+    int x(int e) {
+        return buf.getShort(eventsOffset + e * EVENT_BYTES + 8);
+    }
+
+    int y(int e) {
+        return buf.getShort(eventsOffset + e * EVENT_BYTES + 10);
+    }
+
+    int speed(int e) {
+        return buf.getShort(eventsOffset + e * EVENT_BYTES + 12);
+    }
+
+    int health(int e) {
+        return buf.getShort(eventsOffset + e * EVENT_BYTES + 14);
+    }
+
+    int patternCount() {
+        return patterns.length;
+    }
+
+    BulletPattern[] patterns(int id) {
+        return patterns[id];
+    }
+
+    // The id of a pattern list from this stage, or -1 for any other (a built-in default)
+    int patternId(BulletPattern[] list) {
+        for (int p = 0; p < patterns.length; p++) {
+            if (patterns[p] == list) return p;
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws java.io.IOException {
+        if (args.length != 2) {
+            System.err.println("usage: StageScript <script.txt> <stage.bhs>");
+            System.exit(2);
+        }
+        String text = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(args[0])),
+                java.nio.charset.StandardCharsets.UTF_8);
+        byte[] binary = toBinary(text);
+        java.nio.file.Files.write(java.nio.file.Paths.get(args[1]), binary);
+        StageScript stage = new StageScript(ByteBuffer.wrap(binary));
+        System.out.printf("%d waves, %d patterns, %d bytes%n", stage.waves(), stage.patternCount(), binary.length);
+    }
+}
+
+// --------------------
+// StageSchedule Class
+// --------------------
+// Min-heap of the stage events still to come in the current wave, each packed
+// into one long as its due frame (high 32 bits) and its event index, so events
+// due on the same frame come out in script order. Popping the due events each
+// frame costs O(log n) apiece, however long the wave's timeline is.
+class StageSchedule {
+    private long[] heap = new long[16];
+    private int size;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void push(int dueFrame, int event) {
+        if (size == heap.length) heap = java.util.Arrays.copyOf(heap, size * 2);
+        long entry = (long) dueFrame << 32 | event;
+        int i = size++;
+        while (i > 0 && heap[(i - 1) >>> 1] > entry) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = entry;
+    }
+
+    // Frame the earliest event is due; only valid when not empty
+    public int nextFrame() {
+        return (int) (heap[0] >>> 32);
+    }
+
+    // Removes the earliest event and returns its index
+    public int pop() {
+        int event = (int) heap[0];
+        long last = heap[--size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return event;
+    }
+}
+
+// --------------------
+// BulletPattern Class
+// --------------------
+// A bullet pattern compiled from a text spec into velocity tables. Specs are
+// one or more layers joined by '+', each one of:
+//   ring <count> <speed>                  evenly spaced, fixed orientation
+//   spiral <count> <speed> <degPerFrame>  a ring rotated by frameCount * degPerFrame
+//   fan <count> <speed> <spreadDeg>       an arc of bullets centred on the target
+// Every orientation a pattern can take is precomputed into a "phase" row of
+// the tables (1 for rings, 360 for spirals, AIM_STEPS for fans), so firing is
+// a bulk copy of one row into the bullet store with no trigonometry.
+class BulletPattern {
+    static final int AIM_STEPS = 256; // direction resolution of aimed fans
+
+    private static final int RING = 0, SPIRAL = 1, FAN = 2;
+
+    final int count;       // bullets per shot, across all layers
+    final int phases;
+    final double[] dx, dy; // phases rows of count velocities
+    private final int kind;       // how the phase is chosen: the most specific layer kind
+    private final int turnRate;   // spiral degrees per frame
+
+    private BulletPattern(int count, int phases, double[] dx, double[] dy, int kind, int turnRate) {
+        this.count = count;
+        this.phases = phases;
+        this.dx = dx;
+        this.dy = dy;
+        this.kind = kind;
+        this.turnRate = turnRate;
+    }
+
+    public static BulletPattern compile(String spec) {
+        String[] layers = spec.split("\\+");
+        int[] kinds = new int[layers.length];
+        int[] counts = new int[layers.length];
+        double[] speeds = new double[layers.length];
+        double[] extras = new double[layers.length];
+        int kind = RING, turnRate = 0, total = 0;
+        for (int l = 0; l < layers.length; l++) {
+            String[] f = layers[l].trim().split("\\s+");
+            String name = f[0];
+            if (name.equals("ring") && f.length == 3) {
+                kinds[l] = RING;
+            } else if (name.equals("spiral") && f.length == 4) {
+                kinds[l] = SPIRAL;
+            } else if (name.equals("fan") && f.length == 4) {
+                kinds[l] = FAN;
+            } else {
+                throw new IllegalArgumentException("Bad pattern layer: '" + layers[l].trim() + "'");
+            }
+            counts[l] = Integer.parseInt(f[1]);
+            speeds[l] = Double.parseDouble(f[2]);
+            extras[l] = f.length > 3 ? Double.parseDouble(f[3]) : 0;
+            if (counts[l] <= 0) throw new IllegalArgumentException("Bullet count must be positive: '" + layers[l].trim() + "'");
+            if (kinds[l] != RING) {
+                if (kind != RING && kind != kinds[l]) {
+                    throw new IllegalArgumentException("Cannot layer spirals and fans in one pattern: '" + spec + "'");
+                }
+                if (kinds[l] == SPIRAL) {
+                    if (kind == SPIRAL && turnRate != (int) extras[l]) {
+                        throw new IllegalArgumentException("Layered spirals must share a turn rate: '" + spec + "'");
+                    }
+                    turnRate = (int) extras[l];
+                }
+                kind = kinds[l];
+            }
+            total += counts[l];
+        }
+
+        int phases = kind == SPIRAL ? 360 : (kind == FAN ? AIM_STEPS : 1);
+        double[] dx = new double[phases * total];
+        double[] dy = new double[phases * total];
+        for (int p = 0; p < phases; p++) {
+            int row = p * total;
+            for (int l = 0; l < layers.length; l++) {
+                int n = counts[l];
+                for (int i = 0; i < n; i++) {
+                    double angle;
+                    if (kinds[l] == RING) {
+                        angle = 2 * Math.PI / n * i;
+                    } else if (kinds[l] == SPIRAL) {
+                        double baseAngle = p * Math.PI / 180;
+                        angle = baseAngle + 2 * Math.PI / n * i;
+                    } else {
+                        double aim = 2 * Math.PI / AIM_STEPS * p;
+                        double spread = Math.toRadians(extras[l]);
+                        angle = n == 1 ? aim : aim - spread / 2 + spread / (n - 1) * i;
+                    }
+                    dx[row + i] = speeds[l] * Math.cos(angle);
+                    dy[row + i] = speeds[l] * Math.sin(angle);
+                }
+                row += n;
+            }
+        }
+        return new BulletPattern(total, phases, dx, dy, kind, turnRate);
+    }
+
+    // Picks the table row for this shot
+    int phase(int frameCount, double originX, double originY, double targetX, double targetY) {
+        if (kind == SPIRAL) {
+            return (int) (((long) frameCount * turnRate) % 360 + 360) % 360;
+        }
+        if (kind == FAN) {
+            double angle = Math.atan2(targetY - originY, targetX - originX);
+            int step = (int) Math.round(angle / (2 * Math.PI) * AIM_STEPS);
+            return ((step % AIM_STEPS) + AIM_STEPS) % AIM_STEPS;
+        }
+        return 0;
+    }
+
+    public void fire(BulletPool pool, double originX, double originY, int frameCount, double targetX, double targetY) {
+        int p = phase(frameCount, originX, originY, targetX, targetY);
+        pool.spawnBatch(originX, originY, dx, dy, p * count, count);
+    }
+}
+
+// --------------------
+// BulletPool Class
+// --------------------
+// Fixed-capacity bullet store kept as parallel primitive arrays. Live bullets
+// occupy slots [0, count); removing one moves the last live bullet into the
+// freed slot, so culling never shifts the arrays and nothing is allocated
+// after construction.
+class BulletPool {
+    static final int SIZE = 8;
+    static final double RADIUS = SIZE / 2.0; // bullets are drawn and hit-tested as circles
+    static final HitMask MASK = HitMask.of(new java.awt.geom.Ellipse2D.Double(0, 0, SIZE, SIZE), SIZE, SIZE);
+    static final int MARGIN = 10; // how far past the panel edge a bullet may travel before it is culled
+
+    final double[] x, y, dx, dy;
+    int count;
+
+    public BulletPool(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        dx = new double[capacity];
+        dy = new double[capacity];
+    }
+
+    // Returns false (and drops the bullet) once the pool is full
+    public boolean spawn(double x, double y, double dx, double dy) {
+        if (count == this.x.length) return false;
+        int i = count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.dx[i] = dx;
+        this.dy[i] = dy;
+        return true;
+    }
+
+    public void update() {
+        update(0, count);
+    }
+
+    // Moves the bullets in slots [from, to)
+    public void update(int from, int to) {
+        for (int i = from; i < to; i++) {
+            x[i] += dx[i];
+            y[i] += dy[i];
+        }
+    }
+
+    // Moves the bullets in slots [from, to) by several frames of velocity at once
+    public void update(int from, int to, int frames) {
+        if (frames == 1) {
+            update(from, to);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            x[i] += dx[i] * frames;
+            y[i] += dy[i] * frames;
+        }
+    }
+
+    // Moves the bullets from slot `from` on back by `frames` frames of velocity
+    public void moveBack(int from, int frames) {
+        if (frames == 0) return;
+        for (int i = from; i < count; i++) {
+            x[i] -= dx[i] * frames;
+            y[i] -= dy[i] * frames;
+        }
+    }
+
+    public double centerX(int i) {
+        return x[i] + RADIUS;
+    }
+
+    public double centerY(int i) {
+        return y[i] + RADIUS;
+    }
+
+    // Spawns n bullets at (x, y) with velocities copied from dx/dy starting at
+    // offset. Bullets past capacity are dropped; returns how many were spawned.
+    public int spawnBatch(double x, double y, double[] dx, double[] dy, int offset, int n) {
+        n = Math.min(n, this.x.length - count);
+        java.util.Arrays.fill(this.x, count, count + n, x);
+        java.util.Arrays.fill(this.y, count, count + n, y);
+        System.arraycopy(dx, offset, this.dx, count, n);
+        System.arraycopy(dy, offset, this.dy, count, n);
+        count += n;
+        return n;
+    }
+
+    public boolean isOutside(int i, int panelWidth, int panelHeight) {
+        return x[i] < -MARGIN || x[i] > panelWidth + MARGIN || y[i] < -MARGIN || y[i] > panelHeight + MARGIN;
+    }
+
+    // Swap-and-pop: the bullet previously in the last slot now lives at i
+    public void remove(int i) {
+        int last = --count;
+        x[i] = x[last];
+        y[i] = y[last];
+        dx[i] = dx[last];
+        dy[i] = dy[last];
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    // Replaces this pool's contents with a copy of other's live bullets
+    public void copyFrom(BulletPool other) {
+        if (other.count > capacity()) throw new IllegalArgumentException("pool too small: " + other.count + " > " + capacity());
+        System.arraycopy(other.x, 0, x, 0, other.count);
+        System.arraycopy(other.y, 0, y, 0, other.count);
+        System.arraycopy(other.dx, 0, dx, 0, other.count);
+        System.arraycopy(other.dy, 0, dy, 0, other.count);
+        count = other.count;
+    }
+
+    // Copies only the bullets whose boxes overlap [left, right) x [top, bottom)
+    public void copyFrom(BulletPool other, int left, int top, int right, int bottom) {
+        int n = 0;
+        for (int i = 0; i < other.count; i++) {
+            double bx = other.x[i], by = other.y[i];
+            if (bx + SIZE <= left || bx >= right || by + SIZE <= top || by >= bottom) continue;
+            x[n] = bx;
+            y[n] = by;
+            dx[n] = other.dx[i];
+            dy[n] = other.dy[i];
+            n++;
+        }
+        count = n;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    // Bytes writeTo needs for the current bullets
+    public int snapshotSize() {
+        return 4 + 32 * count;
+    }
+
+    // Appends count and the four coordinate arrays as bulk copies
+    public void writeTo(ByteBuffer buf) {
+        buf.putInt(count);
+        java.nio.DoubleBuffer d = buf.asDoubleBuffer();
+        d.put(x, 0, count).put(y, 0, count).put(dx, 0, count).put(dy, 0, count);
+        buf.position(buf.position() + 32 * count);
+    }
+
+    public void readFrom(ByteBuffer buf) {
+        int n = buf.getInt();
+        if (n > capacity()) throw new IllegalArgumentException("pool too small: " + n + " > " + capacity());
+        java.nio.DoubleBuffer d = buf.asDoubleBuffer();
+        d.get(x, 0, n).get(y, 0, n).get(dx, 0, n).get(dy, 0, n);
+        buf.position(buf.position() + 32 * n);
+        count = n;
+    }
+}
+
+// --------------------
+// HitMask Class
+// --------------------
+// A 1-bit collision mask, precomputed once from a shape: pixel (c, r) is set
+// when the shape contains its centre. Each row is packed into longs, column c
+// in bit c & 63 of word c >>> 6, so testing two masks against each other is a
+// shift and an AND per overlapping row.
+final class HitMask {
+    final int width, height;
+    private final int words;
+    private final long[] rows;
+
+    private HitMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        words = (width + 63) >>> 6;
+        rows = new long[height * words];
+    }
+
+    static HitMask of(java.awt.Shape shape, int width, int height) {
+        HitMask mask = new HitMask(width, height);
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                if (shape.contains(c + 0.5, r + 0.5)) mask.rows[r * mask.words + (c >>> 6)] |= 1L << c;
+            }
+        }
+        return mask;
+    }
+
+    // Whether a mask at most 64 pixels wide, with its top-left corner at (dx, dy)
+    // in this mask's coordinates, shares a set pixel with this one
+    boolean overlaps(HitMask small, int dx, int dy) {
+        if (dx >= width || dy >= height || dx + small.width <= 0 || dy + small.height <= 0) return false;
+        int top = Math.max(0, dy), bottom = Math.min(height, dy + small.height);
+        for (int r = top; r < bottom; r++) {
+            long bits = small.rows[r - dy];
+            int base = r * words;
+            if (dx < 0) {
+                if ((rows[base] & bits >>> -dx) != 0) return true;
+            } else {
+                int w = dx >>> 6, shift = dx & 63;
+                if ((rows[base + w] & bits << shift) != 0) return true;
+                if (shift != 0 && w + 1 < words && (rows[base + w + 1] & bits >>> (64 - shift)) != 0) return true;
+            }
+        }
+        return false;
+    }
+}
+
+// --------------------
+// Collision Helpers
+// --------------------
+// Overlap tests on raw coordinates, so hot collision loops never build Rectangles.
+// Boxes are half-open like java.awt.Rectangle: touching edges do not overlap.
+final class Collision {
+    private Collision() {}
+
+    public static boolean boxesOverlap(int ax, int ay, int aw, int ah, int bx, int by, int bw, int bh) {
+        return ax < bx + bw && bx < ax + aw && ay < by + bh && by < ay + ah;
+    }
+
+    // Clamps the circle centre onto the box and compares the distance to that point with r
+    public static boolean circleIntersectsBox(double cx, double cy, double r, double bx, double by, double bw, double bh) {
+        double nx = cx < bx ? bx : (cx > bx + bw ? bx + bw : cx);
+        double ny = cy < by ? by : (cy > by + bh ? by + bh : cy);
+        double ddx = cx - nx;
+        double ddy = cy - ny;
+        return ddx * ddx + ddy * ddy < r * r;
+    }
+
+    // Continuous version of circleIntersectsBox for a circle whose centre moves from
+    // (x0, y0) to (x1, y1): true if it touches the box anywhere along the way. If the
+    // path does not cross the box, the closest approach is either from an endpoint of
+    // the path to the box or from a corner of the box to the path.
+    public static boolean sweptCircleIntersectsBox(double x0, double y0, double x1, double y1, double r,
+                                                   double bx, double by, double bw, double bh) {
+        if (Math.max(x0, x1) + r <= bx || Math.min(x0, x1) - r >= bx + bw
+                || Math.max(y0, y1) + r <= by || Math.min(y0, y1) - r >= by + bh) {
+            return false;
+        }
+        if (circleIntersectsBox(x1, y1, r, bx, by, bw, bh) || circleIntersectsBox(x0, y0, r, bx, by, bw, bh)
+                || segmentIntersectsBox(x0, y0, x1, y1, bx, by, bw, bh)) {
+            return true;
+        }
+        double r2 = r * r;
+        return pointSegmentDistanceSq(bx, by, x0, y0, x1, y1) < r2
+                || pointSegmentDistanceSq(bx + bw, by, x0, y0, x1, y1) < r2
+                || pointSegmentDistanceSq(bx, by + bh, x0, y0, x1, y1) < r2
+                || pointSegmentDistanceSq(bx + bw, by + bh, x0, y0, x1, y1) < r2;
+    }
+
+    // Slab test: clips the segment's parameter range [0, 1] against both axes of the box
+    static boolean segmentIntersectsBox(double x0, double y0, double x1, double y1,
+                                        double bx, double by, double bw, double bh) {
+        double tMin = 0, tMax = 1;
+        double dx = x1 - x0, dy = y1 - y0;
+        if (dx == 0) {
+            if (x0 < bx || x0 > bx + bw) return false;
+        } else {
+            double t1 = (bx - x0) / dx, t2 = (bx + bw - x0) / dx;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        if (dy == 0) {
+            if (y0 < by || y0 > by + bh) return false;
+        } else {
+            double t1 = (by - y0) / dy, t2 = (by + bh - y0) / dy;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        return tMin <= tMax;
+    }
+
+    static double pointSegmentDistanceSq(double px, double py, double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0 ? 0 : ((px - x0) * dx + (py - y0) * dy) / len2;
+        t = t < 0 ? 0 : (t > 1 ? 1 : t);
+        double ex = x0 + t * dx - px, ey = y0 + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
+
+// --------------------
+// AllocationCounter Class
+// --------------------
+// Measures heap bytes allocated by the calling thread between begin() and end()
+// using HotSpot's per-thread allocation counter. The cost of reading the counter
+// itself is measured once and subtracted, so an allocation-free section reports 0.
+// On JVMs without the counter every measurement reads 0.
+class AllocationCounter {
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private final long overhead;
+    private long start;
+    long lastBytes;
+    long totalBytes;
+    long samples;
+    long allocatingSamples; // sections that allocated anything at all
+
+    public AllocationCounter() {
+        long calibration = Long.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            long a = read();
+            long b = read();
+            calibration = Math.min(calibration, b - a);
+        }
+        overhead = calibration;
+    }
+
+    public static boolean isSupported() {
+        return THREADS != null;
+    }
+
+    public void begin() {
+        start = read();
+    }
+
+    public long end() {
+        long bytes = Math.max(0, read() - start - overhead);
+        lastBytes = bytes;
+        totalBytes += bytes;
+        samples++;
+        if (bytes > 0) allocatingSamples++;
+        return bytes;
+    }
+
+    public void reset() {
+        lastBytes = totalBytes = samples = allocatingSamples = 0;
+    }
+
+    private static long read() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+}
+
+// --------------------
+// LatencyHistogram Class
+// --------------------
+// Log-linear histogram of nanosecond durations, in the style of HdrHistogram:
+// each power of two is split into 16 linear sub-buckets, so a reported value
+// is within about 6% of the recorded one. Recording is a few shifts and an
+// array increment, with no allocation.
+class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS) * SUB];
+    long count;
+    long max;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[index(nanos)]++;
+        count++;
+        if (nanos > max) max = nanos;
+    }
+
+    // Smallest recorded value v such that a fraction p of the samples are <= v
+    public long percentile(double p) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    // Values below 2 * SUB get a bucket each; above that, SUB buckets per power of two
+    private static int index(long v) {
+        if (v < 2 * SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) (v >>> shift) - SUB;
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB) return index;
+        int shift = index / SUB - 1;
+        long sub = index % SUB + SUB;
+        return ((sub + 1) << shift) - 1;
+    }
+}
+
+// --------------------
+// PhaseProfiler Class
+// --------------------
+// Times the phases of a tick and of a frame into LatencyHistograms. Phases are
+// timed back to back: begin() reads the clock once and each lap() closes one
+// phase and opens the next. While disabled, begin() and lap() do not touch the
+// clock at all.
+class PhaseProfiler {
+    static final int STARS = 0, PLAYER = 1, ENEMIES = 2, BROAD_PHASE = 3, ENEMY_BULLETS = 4,
+            PLAYER_BULLETS = 5, POWER_UPS = 6, PARTICLES = 7, WAVE = 8, TICK = 9, RENDER = 10;
+    static final String[] NAMES = {"stars", "player", "enemies", "broad-phase", "enemy-bullets",
+            "player-bullets", "power-ups", "particles", "wave", "tick", "render"};
+
+    boolean enabled;
+    final LatencyHistogram[] histograms = new LatencyHistogram[NAMES.length];
+    // Most recent sample per phase, in ns
+    final long[] last = new long[NAMES.length];
+
+    public PhaseProfiler() {
+        for (int k = 0; k < histograms.length; k++) {
+            histograms[k] = new LatencyHistogram();
+        }
+    }
+
+    public long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // Records the time since `since` as one sample of phase; returns the new timestamp
+    public long lap(int phase, long since) {
+        if (!enabled) return 0;
+        long now = System.nanoTime();
+        last[phase] = now - since;
+        histograms[phase].record(now - since);
+        return now;
+    }
+
+    public void reset() {
+        for (LatencyHistogram h : histograms) h.reset();
+        java.util.Arrays.fill(last, 0);
+    }
+
+    // One line per phase with samples (p50/p99/max in microseconds), then entity counts
+    public String[] describe(GameWorld world, long tickAllocatedBytes) {
+        java.util.List<String> lines = new ArrayList<>();
+        lines.add(String.format("%-15s %8s %8s %8s", "phase (us)", "p50", "p99", "max"));
+        for (int k = 0; k < NAMES.length; k++) {
+            if (histograms[k].count == 0) continue;
+            lines.add(describe(NAMES[k], histograms[k]));
+        }
+        lines.add(String.format("enemies %d  bullets %d/%d  power-ups %d  particles %d",
+                world.enemies.size(), world.enemyBullets.count, world.playerBullets.count,
+                world.powerUps.count, world.particles.count));
+        lines.add(String.format("allocated %d bytes last tick", tickAllocatedBytes));
+        return lines.toArray(new String[0]);
+    }
+
+    static String describe(String name, LatencyHistogram h) {
+        return String.format("%-15s %8.1f %8.1f %8.1f", name,
+                h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3, h.max / 1e3);
+    }
+}
+
+// --------------------
+// MetricsLog Class
+// --------------------
+// Streams one CSV row per tick: the phase timings from PhaseProfiler.last,
+// live entity counts, the bytes the tick allocated and the latest key-to-present
+// latency measured since the previous row (0 if none). Rows are built in a
+// reused StringBuilder and copied into a reused char buffer, so logging does
+// not allocate per tick.
+class MetricsLog implements java.io.Closeable {
+    private final java.io.Writer out;
+    private final StringBuilder row = new StringBuilder(256);
+    private char[] chars = new char[256];
+
+    public MetricsLog(java.io.File file) throws java.io.IOException {
+        out = new java.io.BufferedWriter(new java.io.OutputStreamWriter(
+                new java.io.FileOutputStream(file), "US-ASCII"), 1 << 16);
+        row.append("tick");
+        for (String name : PhaseProfiler.NAMES) row.append(',').append(name).append("_ns");
+        row.append(",enemies,enemy_bullets,player_bullets,power_ups,particles,allocated_bytes,input_latency_ns");
+        writeRow();
+    }
+
+    public void write(GameWorld world, PhaseProfiler profiler, long allocatedBytes, long inputLatencyNanos) throws java.io.IOException {
+        row.append(world.frameCount);
+        for (long nanos : profiler.last) row.append(',').append(nanos);
+        row.append(',').append(world.enemies.size())
+           .append(',').append(world.enemyBullets.count)
+           .append(',').append(world.playerBullets.count)
+           .append(',').append(world.powerUps.count)
+           .append(',').append(world.particles.count)
+           .append(',').append(allocatedBytes)
+           .append(',').append(inputLatencyNanos);
+        writeRow();
+    }
+
+    private void writeRow() throws java.io.IOException {
+        row.append('\n');
+        int n = row.length();
+        if (chars.length < n) chars = new char[n * 2];
+        row.getChars(0, n, chars, 0);
+        out.write(chars, 0, n);
+        row.setLength(0);
+    }
+
+    public void flush() throws java.io.IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws java.io.IOException {
+        out.close();
+    }
+}
+
+// --------------------
+// SimulationLod Class
+// --------------------
+// Simulation level of detail for arenas much larger than the screen. Beyond
+// radius from every player who is up, enemies go dormant and enemy bullets are
+// culled, so the cost of a tick follows what is around the players rather than
+// the size of the arena. In an arena that fits inside the radius from
+// anywhere, nothing changes.
+final class SimulationLod {
+    int radius = 1200;
+
+    private boolean everywhere = true;
+    private double ax, ay, bx, by; // centres of the players who are up; b repeats a when there is one
+    private double radiusSq;
+
+    // Called at the start of each frame's enemy update
+    void update(GameWorld world) {
+        everywhere = (double) world.width * world.width + (double) world.height * world.height <= (double) radius * radius;
+        if (everywhere) return;
+        Player p = world.player, q = world.partner;
+        if (p.health <= 0 && q != null) p = q;
+        if (q == null || q.health <= 0) q = p;
+        ax = p.x + p.width / 2.0;
+        ay = p.y + p.height / 2.0;
+        bx = q.x + q.width / 2.0;
+        by = q.y + q.height / 2.0;
+        radiusSq = (double) radius * radius;
+    }
+
+    boolean near(double x, double y) {
+        if (everywhere) return true;
+        double dx = x - ax, dy = y - ay;
+        if (dx * dx + dy * dy <= radiusSq) return true;
+        dx = x - bx;
+        dy = y - by;
+        return dx * dx + dy * dy <= radiusSq;
+    }
+}
+
+// --------------------
+// SpatialGrid Class
+// --------------------
+// Uniform-grid broad-phase. Collision targets are binned by bounding box once
+// per tick, then bullets and pickups probe only the cells they overlap, so a
+// probe into empty space costs a single lookup no matter how many targets
+// exist. Cells are singly linked lists threaded through primitive arrays.
+class SpatialGrid {
+    static final int CELL_SHIFT = 5; // 32px cells
+
+    private int cols, rows;
+    private int[] cellHead = new int[0]; // first entry per cell, -1 when empty
+    private int[] entryId = new int[64];
+    private int[] entryNext = new int[64];
+    private int entryCount;
+    private int[] occupied = new int[0]; // cells to reset on the next rebuild
+    private int occupiedCount;
+
+    // Query results, de-duplicated with a per-id stamp
+    private int[] results = new int[16];
+    private int[] seen = new int[16];
+    private int queryStamp;
+    private int resultCount;
+
+    // Empties the grid, resizing it if the arena dimensions changed
+    public void reset(int arenaWidth, int arenaHeight) {
+        int c = Math.max(1, (arenaWidth >> CELL_SHIFT) + 1);
+        int r = Math.max(1, (arenaHeight >> CELL_SHIFT) + 1);
+        if (c != cols || r != rows) {
+            cols = c;
+            rows = r;
+            cellHead = new int[c * r];
+            java.util.Arrays.fill(cellHead, -1);
+            occupied = new int[c * r];
+        } else {
+            for (int k = 0; k < occupiedCount; k++) {
+                cellHead[occupied[k]] = -1;
+            }
+        }
+        occupiedCount = 0;
+        entryCount = 0;
+    }
+
+    // Adds id to every cell its box overlaps. Boxes past the edge clamp to the border cells.
+    public void insert(int id, int x, int y, int w, int h) {
+        if (id >= seen.length) {
+            seen = java.util.Arrays.copyOf(seen, Math.max(id + 1, seen.length * 2));
+        }
+        int c0 = col(x), c1 = col(x + w - 1);
+        int r0 = row(y), r1 = row(y + h - 1);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                if (entryCount == entryId.length) {
+                    entryId = java.util.Arrays.copyOf(entryId, entryCount * 2);
+                    entryNext = java.util.Arrays.copyOf(entryNext, entryCount * 2);
+                }
+                int cell = r * cols + c;
+                if (cellHead[cell] < 0) occupied[occupiedCount++] = cell;
+                entryId[entryCount] = id;
+                entryNext[entryCount] = cellHead[cell];
+                cellHead[cell] = entryCount++;
+            }
+        }
+    }
+
+    // Collects the distinct ids in the cells overlapped by the box and returns how many there are
+    public int query(int x, int y, int w, int h) {
+        resultCount = 0;
+        if (entryCount == 0) return 0;
+        if (++queryStamp == 0) {
+            java.util.Arrays.fill(seen, 0);
+            queryStamp = 1;
+        }
+        int c0 = col(x), c1 = col(x + w - 1);
+        int r0 = row(y), r1 = row(y + h - 1);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int e = cellHead[r * cols + c]; e >= 0; e = entryNext[e]) {
+                    int id = entryId[e];
+                    if (seen[id] == queryStamp) continue;
+                    seen[id] = queryStamp;
+                    if (resultCount == results.length) {
+                        results = java.util.Arrays.copyOf(results, resultCount * 2);
+                    }
+                    results[resultCount++] = id;
+                }
+            }
+        }
+        return resultCount;
+    }
+
+    // Read-only variant of query() + contains() that is safe to call from several threads at once
+    public boolean cellsContain(int id, int x, int y, int w, int h) {
+        if (entryCount == 0) return false;
+        int c0 = col(x), c1 = col(x + w - 1);
+        int r0 = row(y), r1 = row(y + h - 1);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int e = cellHead[r * cols + c]; e >= 0; e = entryNext[e]) {
+                    if (entryId[e] == id) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int result(int k) {
+        return results[k];
+    }
+
+    // Whether id was among the results of the last query
+    public boolean contains(int id) {
+        return id < seen.length && seen[id] == queryStamp && resultCount > 0;
+    }
+
+    private int col(int x) {
+        int c = x >> CELL_SHIFT;
+        return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+    }
+
+    private int row(int y) {
+        int r = y >> CELL_SHIFT;
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+}
+
+// --------------------
+// PowerUpPool Class
+// --------------------
+// Fixed-capacity power-up store as parallel primitive arrays, like BulletPool.
+// Power-ups are few and their order is part of the checksum, so removal shifts
+// the later ones down instead of swapping in the last.
+class PowerUpPool {
+    static final int SIZE = 12, SPEED = 2;
+
+    final int[] x, y;
+    final int[] type; // 0 = health, 1 = fire rate boost
+    int count;
+
+    public PowerUpPool(int capacity) {
+        x = new int[capacity];
+        y = new int[capacity];
+        type = new int[capacity];
+    }
+
+    // Returns false (and drops the power-up) once the pool is full
+    public boolean spawn(int x, int y, int type) {
+        if (count == this.x.length) return false;
+        this.x[count] = x;
+        this.y[count] = y;
+        this.type[count] = type;
+        count++;
+        return true;
+    }
+
+    public void remove(int i) {
+        int tail = count - 1 - i;
+        System.arraycopy(x, i + 1, x, i, tail);
+        System.arraycopy(y, i + 1, y, i, tail);
+        System.arraycopy(type, i + 1, type, i, tail);
+        count--;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    // Power-ups are drawn round, so they are collected as circles. The test is
+    // swept from fromY in the player's frame of reference.
+    public boolean touches(int i, Player player, int fromY) {
+        double r = SIZE / 2.0;
+        return player.sweptByCircle(x[i] + r + player.x - player.prevX, fromY + r + player.y - player.prevY, x[i] + r, y[i] + r, r);
+    }
+}
+
+// --------------------
+// ParticleSystem Class
+// --------------------
+// Cosmetic particles in a fixed-size ring of primitive arrays. New particles
+// go at the tail; once the configurable cap is reached the oldest particle is
+// overwritten, so bursts never allocate and never grow the store. Particles
+// that die out of order stay as dead slots until the head passes them.
+// Randomness comes from the system's own seeded generator, not Math.random().
+class ParticleSystem {
+    static final byte EXPLOSION = 0, SPARK = 1, TRAIL = 2;
+
+    final double[] x, y, dx, dy;
+    final int[] life;
+    final byte[] kind;
+    int head;  // slot of the oldest particle
+    int count; // slots in use from head, live or dead
+    private int cap;
+    private final GameRandom random = new GameRandom(0);
+
+    // capacity is rounded up to a power of two
+    public ParticleSystem(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        x = new double[size];
+        y = new double[size];
+        dx = new double[size];
+        dy = new double[size];
+        life = new int[size];
+        kind = new byte[size];
+        cap = size;
+    }
+
+    public int capacity() {
+        return x.length;
+    }
+
+    // Limits how many particles may be alive at once (at most capacity())
+    public void setCap(int cap) {
+        this.cap = Math.max(1, Math.min(cap, capacity()));
+        while (count > this.cap) evictOldest();
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    // Omnidirectional burst, as when an enemy is destroyed
+    public void emitExplosion(double px, double py, int n) {
+        for (int k = 0; k < n; k++) {
+            add(px, py, (random.nextDouble() - 0.5) * 4, (random.nextDouble() - 0.5) * 4, 30, EXPLOSION);
+        }
+    }
+
+    // Short, fast flecks thrown back from a bullet impact
+    public void emitSparks(double px, double py, int n) {
+        for (int k = 0; k < n; k++) {
+            add(px, py, (random.nextDouble() - 0.5) * 6, random.nextDouble() * 3, 8, SPARK);
+        }
+    }
+
+    // A single slow particle drifting down, emitted every tick to form a trail
+    public void emitTrail(double px, double py) {
+        add(px, py, (random.nextDouble() - 0.5) * 0.6, 1.5 + random.nextDouble(), 12, TRAIL);
+    }
+
+    public void update() {
+        int mask = capacity() - 1;
+        for (int k = 0; k < count; k++) {
+            int i = (head + k) & mask;
+            if (life[i] <= 0) continue;
+            x[i] += dx[i];
+            y[i] += dy[i];
+            life[i]--;
+        }
+        while (count > 0 && life[head] <= 0) {
+            head = (head + 1) & mask;
+            count--;
+        }
+    }
+
+    private void add(double px, double py, double vx, double vy, int lifetime, byte k) {
+        if (count == cap) evictOldest();
+        int i = (head + count) & (capacity() - 1);
+        x[i] = px;
+        y[i] = py;
+        dx[i] = vx;
+        dy[i] = vy;
+        life[i] = lifetime;
+        kind[i] = k;
+        count++;
+    }
+
+    private void evictOldest() {
+        head = (head + 1) & (capacity() - 1);
+        count--;
+    }
+}
+
+// --------------------
+// Starfield Class for the Background
+// --------------------
+// Parallax background made of pre-rendered, vertically tileable star layers.
+// Each layer only scrolls an offset, so a frame costs two drawImage calls per
+// layer however many stars the layers hold.
+class Starfield {
+    // Per layer, far to near: stars, star size, speed in pixels per tick, grey level
+    private static final int[] STARS = {220, 90, 30};
+    private static final int[] STAR_SIZE = {1, 2, 2};
+    private static final int[] SPEED = {1, 2, 3};
+    private static final int[] BRIGHTNESS = {110, 180, 255};
+    static final int LAYERS = STARS.length;
+    // Camera pixels per pixel of scroll, per unit of layer speed
+    private static final int PARALLAX = 8;
+
+    private final int width, height;
+    private final int[] offset = new int[LAYERS];
+    private Image[] layers;
+    private GraphicsConfiguration config;
+
+    public Starfield(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(offset, 0);
+    }
+
+    public void update() {
+        for (int k = 0; k < offset.length; k++) {
+            offset[k] = (offset[k] + SPEED[k]) % height;
+        }
+    }
+
+    public void copyOffsets(int[] into) {
+        System.arraycopy(offset, 0, into, 0, LAYERS);
+    }
+
+    // Draws the nearest `count` layers at offsets taken earlier with copyOffsets.
+    // The layers also scroll against the camera, nearer ones faster.
+    public void draw(Graphics g, int[] offsets, int count, double alpha, int cameraX, int cameraY) {
+        Image[] images = layersFor(((Graphics2D) g).getDeviceConfiguration());
+        for (int k = images.length - Math.min(count, images.length); k < images.length; k++) {
+            // Interpolate from the previous offset; the tile wraps in both directions
+            int y = Math.floorMod(GameLoop.lerp(offsets[k] - SPEED[k], offsets[k], alpha) - cameraY * SPEED[k] / PARALLAX, height);
+            int x = Math.floorMod(-cameraX * SPEED[k] / PARALLAX, width);
+            g.drawImage(images[k], x, y, null);
+            g.drawImage(images[k], x, y - height, null);
+            if (x > 0) {
+                g.drawImage(images[k], x - width, y, null);
+                g.drawImage(images[k], x - width, y - height, null);
+            }
+        }
+    }
+
+    // Layers are rasterized once per GraphicsConfiguration so they stay accelerated
+    private Image[] layersFor(GraphicsConfiguration gc) {
+        if (layers != null && gc == config) return layers;
+        config = gc;
+        layers = new Image[STARS.length];
+        java.util.Random random = new java.util.Random(0x5747L);
+        for (int k = 0; k < layers.length; k++) {
+            Image image = gc != null
+                ? gc.createCompatibleImage(width, height, Transparency.BITMASK)
+                : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics ig = image.getGraphics();
+            ig.setColor(new Color(BRIGHTNESS[k], BRIGHTNESS[k], BRIGHTNESS[k]));
+            for (int n = 0; n < STARS[k]; n++) {
+                ig.fillRect(random.nextInt(width), random.nextInt(height), STAR_SIZE[k], STAR_SIZE[k]);
+            }
+            ig.dispose();
+            layers[k] = image;
+        }
+        return layers;
+    }
+}
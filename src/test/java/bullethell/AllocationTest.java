@@ -0,0 +1,61 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+// Once every buffer has grown to size, a tick allocates nothing, in any wave
+// and in co-op. Surefire runs this class on its own with C1 only: C2's
+// deoptimizations occasionally allocate on the running thread, which says
+// nothing about the game's code. Under C2 the tests are skipped.
+class AllocationTest {
+    private static boolean withoutC2() {
+        java.util.List<String> args = java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments();
+        return args.contains("-Xint") || args.stream().anyMatch(a -> a.matches("-XX:TieredStopAtLevel=[0-3]"));
+    }
+
+    // Plays bot games from startWave (resetting between games, outside the
+    // measurement) and returns the bytes the ticks themselves allocated
+    private static long play(GameWorld world, int startWave, long seed, int ticks, AllocationCounter counter) {
+        InputState input = new InputState(), partnerInput = new InputState();
+        world.reset(startWave, seed);
+        for (long t = 0; t < ticks; t++) {
+            HeadlessRunner.steer(world, world.player, input, t, 1);
+            if (world.partner != null) HeadlessRunner.steer(world, world.partner, partnerInput, t + 2, 1);
+            counter.begin();
+            world.tick(input, partnerInput);
+            counter.end();
+            if (world.state != GameWorld.STATE_PLAYING) world.reset(startWave, ++seed);
+        }
+        return counter.totalBytes;
+    }
+
+    private static void assertSteadyStateAllocatesNothing(GameWorld world, int startWave) {
+        assumeTrue(AllocationCounter.isSupported() && withoutC2());
+        // The first games size the bullet, particle and broad-phase buffers
+        play(world, startWave, 1, 30_000, new AllocationCounter());
+        AllocationCounter counter = new AllocationCounter();
+        long bytes = play(world, startWave, 100, 30_000, counter);
+        assertEquals(0, bytes, counter.allocatingSamples + " of " + counter.samples + " ticks allocated");
+    }
+
+    @Test
+    void soloTicksAllocateNothing() {
+        assertSteadyStateAllocatesNothing(new GameWorld(600, 600), 1);
+    }
+
+    @Test
+    void endlessTicksAllocateNothing() {
+        GameWorld world = new GameWorld(600, 600);
+        world.endless = true;
+        assertSteadyStateAllocatesNothing(world, 6);
+    }
+
+    @Test
+    void coopTicksAllocateNothing() {
+        GameWorld world = new GameWorld(600, 600);
+        world.coop = true;
+        assertSteadyStateAllocatesNothing(world, 1);
+    }
+}
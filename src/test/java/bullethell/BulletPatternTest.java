@@ -0,0 +1,114 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+// Compiled patterns must fire exactly what the hard-coded shoot() methods they
+// replaced fired: same origins, same velocities to the bit, in the same order.
+// The expected shots below are those methods' loops, copied as they were.
+class BulletPatternTest {
+    // The old NormalEnemy.shoot: a ring of 6 at speed 3 from the bottom centre
+    private static BulletPool oldNormalShot(int x, int y, int width, int height) {
+        BulletPool expected = new BulletPool(64);
+        int numBullets = 6;
+        int startX = x + width/2;
+        int startY = y + height;
+        double bulletSpeed = 3.0;
+        for (int i = 0; i < numBullets; i++) {
+            double angle = 2 * Math.PI / numBullets * i;
+            double dx = bulletSpeed * Math.cos(angle);
+            double dy = bulletSpeed * Math.sin(angle);
+            expected.spawn(startX, startY, dx, dy);
+        }
+        return expected;
+    }
+
+    // The old Boss.shoot: a ring of 12 at speed 3 and a spiral of 12 at speed 2.5
+    // turning a degree a frame, alternating every 120 frames, from the centre
+    private static BulletPool oldBossShot(int x, int y, int width, int height, int frameCount) {
+        BulletPool expected = new BulletPool(64);
+        int pattern = (frameCount / 120) % 2;
+        int numBullets = 12;
+        int startX = x + width/2;
+        int startY = y + height/2;
+        if (pattern == 0) {
+            double bulletSpeed = 3.0;
+            for (int i = 0; i < numBullets; i++) {
+                double angle = 2 * Math.PI / numBullets * i;
+                double dx = bulletSpeed * Math.cos(angle);
+                double dy = bulletSpeed * Math.sin(angle);
+                expected.spawn(startX, startY, dx, dy);
+            }
+        } else {
+            double baseAngle = (frameCount % 360) * Math.PI / 180;
+            double bulletSpeed = 2.5;
+            for (int i = 0; i < numBullets; i++) {
+                double angle = baseAngle + 2 * Math.PI / numBullets * i;
+                double dx = bulletSpeed * Math.cos(angle);
+                double dy = bulletSpeed * Math.sin(angle);
+                expected.spawn(startX, startY, dx, dy);
+            }
+        }
+        return expected;
+    }
+
+    private static void assertSameShot(BulletPool expected, BulletPool actual, String where) {
+        assertEquals(expected.count, actual.count, where);
+        for (int i = 0; i < expected.count; i++) {
+            // Bit for bit: assertEquals(double, double) compares exactly
+            assertEquals(expected.x[i], actual.x[i], where + " bullet " + i);
+            assertEquals(expected.y[i], actual.y[i], where + " bullet " + i);
+            assertEquals(expected.dx[i], actual.dx[i], where + " bullet " + i);
+            assertEquals(expected.dy[i], actual.dy[i], where + " bullet " + i);
+        }
+    }
+
+    @Test
+    void normalEnemiesFireTheOldRing() {
+        EnemyStore enemies = new EnemyStore();
+        EnemyArchetype a = enemies.normals;
+        int e = enemies.addNormal(137, 61, 1, Balance.DEFAULT);
+        for (int frame = 0; frame < 720; frame += 7) {
+            BulletPool actual = new BulletPool(64);
+            a.fire(e, actual, frame, 300, 500);
+            assertSameShot(oldNormalShot(a.x[e], a.y[e], a.width, a.height), actual, "frame " + frame);
+        }
+    }
+
+    // Every frame over two full spiral turns and both sides of each ring/spiral switch
+    @Test
+    void bossFiresTheOldRingAndSpiral() {
+        EnemyStore enemies = new EnemyStore();
+        EnemyArchetype a = enemies.bosses;
+        int b = enemies.addBoss(241, 33, Balance.DEFAULT);
+        for (int frame = 0; frame < 1440; frame++) {
+            BulletPool actual = new BulletPool(64);
+            a.fire(b, actual, frame, 300, 500);
+            assertSameShot(oldBossShot(a.x[b], a.y[b], a.width, a.height, frame), actual, "frame " + frame);
+        }
+    }
+
+    // Nothing hard-coded ever aimed, so fans have no old shot to match. Aimed at a
+    // target straight along one of the AIM_STEPS directions, a fan is that
+    // direction's arc, evenly spread and centred on the target.
+    @Test
+    void aimedFanCentresOnTheTarget() {
+        BulletPattern fan = BulletPattern.compile("fan 5 3.5 60");
+        double ox = 300, oy = 100;
+        for (int step = 0; step < BulletPattern.AIM_STEPS; step++) {
+            double aim = 2 * Math.PI / BulletPattern.AIM_STEPS * step;
+            BulletPool actual = new BulletPool(64);
+            fan.fire(actual, ox, oy, 0, ox + 200 * Math.cos(aim), oy + 200 * Math.sin(aim));
+            assertEquals(5, actual.count);
+            for (int i = 0; i < 5; i++) {
+                double angle = aim + Math.toRadians(-30 + 15 * i);
+                String where = "step " + step + " bullet " + i;
+                assertEquals(ox, actual.x[i], where);
+                assertEquals(oy, actual.y[i], where);
+                assertEquals(3.5 * Math.cos(angle), actual.dx[i], 1e-12, where);
+                assertEquals(3.5 * Math.sin(angle), actual.dy[i], 1e-12, where);
+            }
+        }
+    }
+}
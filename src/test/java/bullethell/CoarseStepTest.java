@@ -0,0 +1,76 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.junit.jupiter.api.Test;
+
+// step(input, frames) must play the same game as `frames` ticks wherever it
+// claims to be exact: player and enemy movement, when enemies fire, where
+// their bullets go and which of them hit the player. Kills are resolved once
+// per step, so the enemies here can't die; nothing random happens then either.
+class CoarseStepTest {
+    private static GameWorld world(int wave) {
+        GameWorld world = new GameWorld(600, 600);
+        world.endless = wave > 4;
+        world.effects = false;
+        world.reset(wave, 1);
+        world.player.health = Integer.MAX_VALUE / 2;
+        return world;
+    }
+
+    private static void makeEnemiesImmortal(GameWorld world) {
+        for (EnemyArchetype a : world.enemies.archetypes) Arrays.fill(a.health, 0, a.count, Integer.MAX_VALUE / 2);
+    }
+
+    // Bullet centres in a fixed order; bullets leave the pool at different times
+    // in the two worlds, which reorders it
+    private static double[][] bullets(BulletPool b) {
+        double[][] centres = new double[b.count][];
+        for (int i = 0; i < b.count; i++) centres[i] = new double[] {b.centerX(i), b.centerY(i)};
+        Arrays.sort(centres, Comparator.<double[]>comparingLong(c -> Math.round(c[0] * 1e6))
+                .thenComparingLong(c -> Math.round(c[1] * 1e6)));
+        return centres;
+    }
+
+    private static void assertSameGame(int wave, int frames) {
+        GameWorld ticked = world(wave), stepped = world(wave);
+        InputState input = new InputState();
+        for (int step = 0; step < 2400 / frames; step++) {
+            makeEnemiesImmortal(ticked);
+            makeEnemiesImmortal(stepped);
+            for (int f = 0; f < frames; f++) ticked.tick(input);
+            stepped.step(input, frames);
+
+            String where = "wave " + wave + ", " + frames + " frames a step, frame " + ticked.frameCount;
+            assertEquals(ticked.frameCount, stepped.frameCount, where);
+            assertEquals(ticked.score, stepped.score, where);
+            assertEquals(ticked.player.x, stepped.player.x, where);
+            assertEquals(ticked.player.y, stepped.player.y, where);
+            assertEquals(ticked.player.health, stepped.player.health, where);
+            for (int k = 0; k < ticked.enemies.archetypes.length; k++) {
+                EnemyArchetype a = ticked.enemies.archetypes[k], b = stepped.enemies.archetypes[k];
+                assertEquals(a.count, b.count, where);
+                assertArrayEquals(Arrays.copyOf(a.x, a.count), Arrays.copyOf(b.x, b.count), where);
+                assertArrayEquals(Arrays.copyOf(a.y, a.count), Arrays.copyOf(b.y, b.count), where);
+                assertArrayEquals(Arrays.copyOf(a.shootTimer, a.count), Arrays.copyOf(b.shootTimer, b.count), where);
+            }
+            double[][] expected = bullets(ticked.enemyBullets), actual = bullets(stepped.enemyBullets);
+            assertEquals(expected.length, actual.length, where);
+            for (int i = 0; i < expected.length; i++) assertArrayEquals(expected[i], actual[i], 1e-9, where);
+        }
+        // Bullets did reach the player
+        assertTrue(ticked.damageTaken > 0, "wave " + wave);
+    }
+
+    @Test
+    void coarseStepsMatchSingleFrameTicks() {
+        for (int wave : new int[] {1, 4, 6, 8}) {
+            for (int frames : new int[] {2, 3, 4, 8}) assertSameGame(wave, frames);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CollisionTest {
+    private static final int SAMPLES = 2000;
+
+    // Checks sweptCircleIntersectsBox against the circle placed at many points
+    // along its path: any sampled touch must be found, and a reported touch must
+    // come within a sample's spacing of one
+    @Test
+    void sweptTestMatchesSamplingThePath() {
+        Random random = new Random(1);
+        int hits = 0;
+        for (int k = 0; k < 20_000; k++) {
+            double bx = random.nextInt(100), by = random.nextInt(100);
+            double bw = 1 + random.nextInt(40), bh = 1 + random.nextInt(40);
+            double x0 = random.nextDouble() * 200 - 50, y0 = random.nextDouble() * 200 - 50;
+            double x1 = random.nextDouble() * 200 - 50, y1 = random.nextDouble() * 200 - 50;
+            double r = 1 + random.nextDouble() * 6;
+            boolean swept = Collision.sweptCircleIntersectsBox(x0, y0, x1, y1, r, bx, by, bw, bh);
+            double closest = Double.MAX_VALUE;
+            for (int s = 0; s <= SAMPLES; s++) {
+                double t = (double) s / SAMPLES, cx = x0 + (x1 - x0) * t, cy = y0 + (y1 - y0) * t;
+                double nx = Math.max(bx, Math.min(cx, bx + bw)), ny = Math.max(by, Math.min(cy, by + bh));
+                closest = Math.min(closest, Math.hypot(cx - nx, cy - ny));
+            }
+            double spacing = Math.hypot(x1 - x0, y1 - y0) / SAMPLES;
+            String where = String.format("(%f,%f)->(%f,%f) r %f box %f,%f %fx%f", x0, y0, x1, y1, r, bx, by, bw, bh);
+            if (closest < r) assertTrue(swept, where);
+            if (swept) assertTrue(closest < r + spacing, where);
+            if (swept) hits++;
+        }
+        assertTrue(hits > 2000 && hits < 18_000, hits + " hits");
+    }
+
+    // A circle that jumps clean over a thin box in one step still hits it
+    @Test
+    void fastCircleCannotJumpOverAThinBox() {
+        assertFalse(Collision.circleIntersectsBox(20, -10, 4, 0, 0, 40, 2));
+        assertFalse(Collision.circleIntersectsBox(20, 12, 4, 0, 0, 40, 2));
+        assertTrue(Collision.sweptCircleIntersectsBox(20, -10, 20, 12, 4, 0, 0, 40, 2));
+        // Diagonally past a corner: the path's closest approach is to the corner
+        assertTrue(Collision.sweptCircleIntersectsBox(-10, -4, 4, 10, 4, 0, 0, 40, 2));
+        assertFalse(Collision.sweptCircleIntersectsBox(-14, -4, 0, 10, 4, 0, 0, 40, 2));
+    }
+
+    // An enemy bullet moving further in one step than the focused hitbox is tall
+    private static void assertBulletCannotJumpOverThePlayer(int frames) {
+        GameWorld world = new GameWorld(600, 600);
+        world.reset(1, 1);
+        world.enemies.clear();
+        world.enemyBullets.clear();
+        InputState focus = new InputState();
+        focus.focus = true;
+        world.tick(focus);
+        Player p = world.player;
+        int health = p.health;
+        double cx = p.hitBoxX() + p.hitBoxWidth() / 2.0, top = p.hitBoxY(), bottom = top + p.hitBoxHeight();
+        double r = BulletPool.RADIUS, travel = bottom - top + 2 * r + 12;
+        // Starts 6px clear above the hitbox and ends 6px clear below it
+        world.enemyBullets.spawn(cx - r, top - 2 * r - 6, 0, travel / frames);
+        assertFalse(p.hitBoxIntersectsCircle(cx, top - r - 6, r));
+        assertFalse(p.hitBoxIntersectsCircle(cx, bottom + r + 6, r));
+        world.step(focus, frames);
+        assertEquals(health - 1, p.health, frames + " frames");
+        assertEquals(0, world.enemyBullets.count);
+    }
+
+    @Test
+    void enemyBulletCannotJumpOverThePlayer() {
+        assertBulletCannotJumpOverThePlayer(1);
+        // The same path as an ordinary-speed bullet over a coarse step
+        assertBulletCannotJumpOverThePlayer(8);
+    }
+
+    @Test
+    void playerBulletCannotJumpOverAnEnemy() {
+        GameWorld world = new GameWorld(600, 600);
+        world.reset(1, 1);
+        world.enemies.clear();
+        world.playerBullets.clear();
+        EnemyArchetype normals = world.enemies.normals;
+        int e = world.enemies.addNormal(100, 50, 1, Balance.DEFAULT);
+        normals.speed[e] = 0;
+        int health = normals.health[e];
+        // Centre from 12px below the enemy to 8px above it in one frame
+        double r = BulletPool.RADIUS, cx = 120, startY = 90 + 12, endY = 50 - 8;
+        assertFalse(Collision.circleIntersectsBox(cx, startY, r, 100, 50, normals.width, normals.height));
+        assertFalse(Collision.circleIntersectsBox(cx, endY, r, 100, 50, normals.width, normals.height));
+        world.playerBullets.spawn(cx - r, startY - r, 0, endY - startY);
+        world.tick(new InputState());
+        assertEquals(health - 1, normals.health[e]);
+    }
+}
@@ -0,0 +1,52 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class CoopTest {
+    private static GameWorld coopWorld() {
+        GameWorld world = new GameWorld(600, 600);
+        world.coop = true;
+        world.reset(1, 1);
+        return world;
+    }
+
+    // A downed player neither collects power-ups nor is revived by one
+    @Test
+    void downedPlayersDoNotCollectPowerUps() {
+        for (int downed = 0; downed < 2; downed++) {
+            GameWorld world = coopWorld();
+            Player p = downed == 0 ? world.player : world.partner;
+            p.health = 0;
+            world.powerUps.spawn(p.x + p.width / 2 - PowerUpPool.SIZE / 2, p.y, 0);
+            world.tick(new InputState(), new InputState());
+            assertEquals(GameWorld.STATE_PLAYING, world.state);
+            assertEquals(0, p.health, downed == 0 ? "player" : "partner");
+            assertEquals(1, world.powerUps.count);
+        }
+    }
+
+    @Test
+    void playersWhoAreUpCollectPowerUps() {
+        GameWorld world = coopWorld();
+        Player p = world.player;
+        p.health = 1;
+        world.powerUps.spawn(p.x + p.width / 2 - PowerUpPool.SIZE / 2, p.y, 0);
+        world.tick(new InputState(), new InputState());
+        assertEquals(2, p.health);
+        assertEquals(0, world.powerUps.count);
+    }
+
+    // Damage can take a player below zero; the HUD never shows negative health
+    @Test
+    void hudHealthIsClampedForBothPlayers() {
+        GameWorld world = coopWorld();
+        world.player.health = -2;
+        world.partner.health = -3;
+        RenderFrame frame = new RenderFrame(world);
+        frame.capture(world);
+        assertEquals(0, frame.health);
+        assertEquals(0, frame.partnerHealth);
+    }
+}
@@ -0,0 +1,48 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class EndlessTest {
+    // Late endless waves have more enemies than rows to put them in. Every enemy
+    // must still spawn in the upper half of the arena, where the players can
+    // reach it, and the wave must keep the health of every enemy it asked for.
+    @Test
+    void lateWavesSpawnInsideTheUpperHalf() {
+        for (int[] size : new int[][] {{600, 600}, {800, 1000}, {300, 250}}) {
+            GameWorld world = new GameWorld(size[0], size[1]);
+            world.endless = true;
+            for (int wave = 85; wave <= 100; wave++) {
+                world.reset(wave, 1);
+                EnemyArchetype a = world.enemies.normals;
+                String where = size[0] + "x" + size[1] + " wave " + wave;
+                assertTrue(a.count > 0, where);
+                long health = 0;
+                for (int i = 0; i < a.count; i++) {
+                    assertTrue(a.x[i] >= 0 && a.x[i] + a.width <= world.width, where + " enemy " + i + " x " + a.x[i]);
+                    assertTrue(a.y[i] >= 0 && a.y[i] + a.height <= Math.max(world.height / 2, 150 + a.height),
+                            where + " enemy " + i + " y " + a.y[i]);
+                    assertTrue(a.shootDelay[i] >= Balance.DEFAULT.normalMinShootDelay, where);
+                    health += a.health[i];
+                }
+                int asked = wave % 4 == 0 ? wave / 2 : wave + 2;
+                int each = Balance.DEFAULT.normalHealth + Balance.DEFAULT.normalHealthPerWave * wave;
+                assertTrue(health > (long) asked * each - a.count, where + " health " + health);
+                assertEquals(wave % 4 == 0 ? 1 : 0, world.enemies.bosses.count, where);
+            }
+        }
+    }
+
+    // Early waves fit, so they are exactly the rows they always were
+    @Test
+    void wavesThatFitSpawnEveryEnemy() {
+        GameWorld world = new GameWorld(600, 600);
+        world.endless = true;
+        for (int wave = 5; wave <= 30; wave++) {
+            world.reset(wave, 1);
+            assertEquals(wave % 4 == 0 ? wave / 2 : wave + 2, world.enemies.normals.count, "wave " + wave);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class FrameExchangeTest {
+    private final GameWorld world = new GameWorld(600, 600);
+
+    @Test
+    void consumerGetsTheNewestPublishedFrame() {
+        FrameExchange frames = new FrameExchange(world);
+        RenderFrame first = frames.back();
+        first.tick = 1;
+        frames.publish();
+        assertSame(first, frames.latest());
+        // Nothing new: the consumer keeps its frame
+        assertSame(first, frames.latest());
+
+        // Of two frames published between looks, only the newer one is shown
+        frames.back().tick = 2;
+        frames.publish();
+        RenderFrame third = frames.back();
+        third.tick = 3;
+        frames.publish();
+        assertSame(third, frames.latest());
+        assertNotSame(third, frames.back());
+    }
+
+    @Test
+    void producerNeverFillsTheFrameBeingDrawn() {
+        FrameExchange frames = new FrameExchange(world);
+        for (int t = 0; t < 100; t++) {
+            frames.back().tick = t;
+            frames.publish();
+            if (t % 3 == 0) {
+                RenderFrame shown = frames.latest();
+                assertEquals(t, shown.tick);
+                assertNotSame(shown, frames.back());
+            }
+        }
+    }
+
+    // A simulation thread publishing as fast as it can and a render thread
+    // taking frames: the render thread only ever sees whole frames, never goes
+    // back in time, and ends up with the last one published
+    @Test
+    void framesArriveWholeAndInOrderAcrossThreads() throws InterruptedException {
+        final long ticks = 500_000;
+        FrameExchange frames = new FrameExchange(world);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            for (long t = 1; t <= ticks; t++) {
+                RenderFrame f = frames.back();
+                f.tick = t;
+                f.score = (int) t;
+                f.publishedNanos = -t;
+                frames.publish();
+            }
+        });
+        producer.setUncaughtExceptionHandler((thread, ex) -> failure.set(ex));
+        producer.start();
+        long last = 0;
+        int seen = 0;
+        while (last < ticks) {
+            RenderFrame f = frames.latest();
+            assertTrue(f.tick >= last, "went back from " + last + " to " + f.tick);
+            assertEquals(f.tick, f.score);
+            assertEquals(-f.tick, f.publishedNanos);
+            if (f.tick != last) seen++;
+            last = f.tick;
+        }
+        producer.join();
+        assertEquals(null, failure.get());
+        assertEquals(ticks, frames.latest().tick);
+        assertTrue(seen > 0);
+    }
+}
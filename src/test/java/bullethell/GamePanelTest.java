@@ -0,0 +1,60 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.event.KeyEvent;
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+class GamePanelTest {
+    // This thread runs the panel's ticks while another offers key events, as
+    // the EDT does. Every event must apply on the tick it was stamped with.
+    @Test
+    void keyEventsApplyOnTheirStampedTick() throws InterruptedException {
+        GamePanel panel = new GamePanel(60, 60);
+        // ENTER starts a game and P pauses it, so nothing but the input changes
+        panel.keys.offer(KeyEvent.VK_ENTER, true, 1);
+        panel.keys.offer(KeyEvent.VK_P, true, 1);
+        panel.tick();
+
+        // LEFT alternately pressed and released: after each tick, LEFT is held
+        // exactly when an odd number of events were stamped up to that tick
+        final int events = 20_000;
+        long[] stamps = new long[events];
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < events; i++) {
+                while ((stamps[i] = panel.keys.offer(KeyEvent.VK_LEFT, (i & 1) == 0, System.nanoTime())) < 0) {
+                    Thread.yield();
+                }
+                // Bursts of eight, so events both share ticks and straddle tick boundaries
+                if ((i & 7) == 7) java.util.concurrent.locks.LockSupport.parkNanos(1000);
+            }
+        }, "test-edt");
+        BitSet held = new BitSet();
+        int tick = 1;
+        producer.start();
+        while (producer.isAlive()) {
+            panel.tick();
+            held.set(tick++, panel.input.left);
+            // The game loop parks between ticks
+            Thread.yield();
+        }
+        producer.join();
+        // Picks up whatever was offered during the last tick
+        panel.tick();
+        held.set(tick++, panel.input.left);
+
+        int e = 0, ticksWithEvents = 0;
+        for (int t = 1; t < tick; t++) {
+            int before = e;
+            while (e < events && stamps[e] <= t) e++;
+            if (e > before) ticksWithEvents++;
+            assertEquals((e & 1) == 1, held.get(t), "tick " + t);
+        }
+        assertEquals(events, e);
+        // The events really were spread over the ticks
+        assertTrue(ticksWithEvents > 10, ticksWithEvents + " ticks with events");
+    }
+}
@@ -0,0 +1,79 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class HitMaskTest {
+    // Pixel-by-pixel reference for HitMask.overlaps, straight from the shapes
+    private static boolean bruteOverlap(Shape big, int bw, int bh, Shape small, int sw, int sh, int dx, int dy) {
+        for (int r = 0; r < sh; r++) {
+            for (int c = 0; c < sw; c++) {
+                int x = c + dx, y = r + dy;
+                if (x < 0 || y < 0 || x >= bw || y >= bh) continue;
+                if (small.contains(c + 0.5, r + 0.5) && big.contains(x + 0.5, y + 0.5)) return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void overlapsMatchesPixelBruteForce() {
+        // The last big shape spans three words per row; the last small one is a full word wide
+        Shape[] bigShapes = {EnemyStore.BOSS_HULL, EnemyStore.BOSS_ARMOR, EnemyStore.BOSS_CORE,
+                new Ellipse2D.Double(3, 5, 150, 40)};
+        int[][] bigSizes = {{120, 60}, {120, 60}, {120, 60}, {160, 50}};
+        Shape[] smallShapes = {new Ellipse2D.Double(0, 0, BulletPool.SIZE, BulletPool.SIZE),
+                new Ellipse2D.Double(1, 0, 62, 9), new Rectangle2D.Double(0, 0, 64, 3)};
+        int[][] smallSizes = {{BulletPool.SIZE, BulletPool.SIZE}, {64, 9}, {64, 3}};
+        Random random = new Random(1);
+        int hits = 0;
+        for (int b = 0; b < bigShapes.length; b++) {
+            int bw = bigSizes[b][0], bh = bigSizes[b][1];
+            HitMask big = HitMask.of(bigShapes[b], bw, bh);
+            for (int s = 0; s < smallShapes.length; s++) {
+                int sw = smallSizes[s][0], sh = smallSizes[s][1];
+                HitMask small = HitMask.of(smallShapes[s], sw, sh);
+                for (int k = 0; k < 3000; k++) {
+                    int dx = random.nextInt(bw + sw + 20) - sw - 10, dy = random.nextInt(bh + sh + 20) - sh - 10;
+                    boolean expected = bruteOverlap(bigShapes[b], bw, bh, smallShapes[s], sw, sh, dx, dy);
+                    if (expected) hits++;
+                    assertEquals(expected, big.overlaps(small, dx, dy), "shape " + b + "/" + s + " at " + dx + "," + dy);
+                }
+            }
+        }
+        // Make sure both outcomes were exercised
+        assertTrue(hits > 1000 && hits < 30000, hits + " hits");
+    }
+
+    @Test
+    void bossZonesDecideTheDamage() {
+        EnemyStore enemies = new EnemyStore();
+        EnemyArchetype bosses = enemies.bosses;
+        int i = enemies.addBoss(100, 100, Balance.DEFAULT);
+        // Resting bullets, centred on the core, an armour plate, bare hull and a clipped corner
+        assertEquals(2, bosses.bulletDamage(i, 160, 151, 160, 151));
+        assertEquals(0, bosses.bulletDamage(i, 110, 130, 110, 130));
+        assertEquals(1, bosses.bulletDamage(i, 160, 115, 160, 115));
+        assertEquals(EnemyArchetype.MISS, bosses.bulletDamage(i, 101, 101, 101, 101));
+        // Moving bullets take the first zone along their path
+        assertEquals(0, bosses.bulletDamage(i, 60, 130, 260, 130));
+        assertEquals(1, bosses.bulletDamage(i, 160, 40, 160, 200));
+        assertEquals(EnemyArchetype.MISS, bosses.bulletDamage(i, 60, 60, 260, 60));
+    }
+
+    // Normal enemies have no zones: anything touching the box does 1 damage
+    @Test
+    void zonelessEnemiesTakeOneDamageAnywhereInTheBox() {
+        EnemyStore enemies = new EnemyStore();
+        int i = enemies.addNormal(100, 100, 1, Balance.DEFAULT);
+        assertEquals(1, enemies.normals.bulletDamage(i, 98, 98, 98, 98));
+        assertEquals(EnemyArchetype.MISS, enemies.normals.bulletDamage(i, 90, 90, 90, 90));
+    }
+}
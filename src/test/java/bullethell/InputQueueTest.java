@@ -0,0 +1,92 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class InputQueueTest {
+    @Test
+    void eventsAreStampedWithTheTickThatPollsThem() {
+        InputQueue queue = new InputQueue(8);
+        assertEquals(0, queue.offer(37, true, 100));
+        assertEquals(0, queue.offer(37, false, 200));
+
+        queue.startTick(0);
+        // Offered after tick 0 started, so it waits for tick 1
+        assertEquals(1, queue.offer(39, true, 300));
+        long event = queue.poll();
+        assertEquals(0, InputQueue.tick(event));
+        assertEquals(37, InputQueue.keyCode(event));
+        assertTrue(InputQueue.pressed(event));
+        assertEquals(100, queue.polledNanos());
+        assertFalse(InputQueue.pressed(queue.poll()));
+        assertEquals(200, queue.polledNanos());
+        assertEquals(-1, queue.poll());
+
+        queue.startTick(1);
+        event = queue.poll();
+        assertEquals(1, InputQueue.tick(event));
+        assertEquals(39, InputQueue.keyCode(event));
+        assertEquals(-1, queue.poll());
+        queue.startTick(2);
+        assertEquals(-1, queue.poll());
+    }
+
+    @Test
+    void fullQueueDropsNewEvents() {
+        InputQueue queue = new InputQueue(4);
+        for (int i = 0; i < 4; i++) assertEquals(0, queue.offer(i, true, i));
+        assertEquals(-1, queue.offer(4, true, 4));
+        queue.startTick(0);
+        assertEquals(0, InputQueue.keyCode(queue.poll()));
+        assertEquals(1, queue.offer(5, true, 5));
+        for (int expected : new int[] {1, 2, 3}) {
+            assertEquals(expected, InputQueue.keyCode(queue.poll()));
+        }
+        assertEquals(-1, queue.poll());
+        queue.startTick(1);
+        assertEquals(5, InputQueue.keyCode(queue.poll()));
+        assertEquals(-1, queue.poll());
+    }
+
+    // One producer and one consumer thread, as with the EDT and the simulation
+    // thread: every event arrives exactly once, in order, with its own time, on
+    // the tick it was stamped with
+    @Test
+    void noEventIsLostOrLateAcrossThreads() throws InterruptedException {
+        final int events = 1_000_000;
+        InputQueue queue = new InputQueue(64);
+        long[] stamps = new long[events];
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < events; i++) {
+                while ((stamps[i] = queue.offer(i & 0xFFFF, (i & 1) != 0, i)) < 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        long tick = 0;
+        long[] polledOn = new long[events];
+        try {
+            for (int i = 0; i < events; tick++) {
+                queue.startTick(tick);
+                long event;
+                while ((event = queue.poll()) >= 0) {
+                    assertEquals(tick, InputQueue.tick(event));
+                    assertEquals(i & 0xFFFF, InputQueue.keyCode(event));
+                    assertEquals((i & 1) != 0, InputQueue.pressed(event));
+                    assertEquals(i, queue.polledNanos());
+                    polledOn[i++] = tick;
+                }
+                if ((tick & 7) == 0) Thread.yield();
+            }
+        } finally {
+            producer.join();
+        }
+        for (int i = 0; i < events; i++) assertEquals(stamps[i], polledOn[i], "event " + i);
+        queue.startTick(tick);
+        assertEquals(-1, queue.poll());
+    }
+}
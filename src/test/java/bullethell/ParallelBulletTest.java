@@ -0,0 +1,49 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The parallel enemy-bullet pass must leave the world exactly as the
+// sequential one does, however the bullets are split between workers.
+class ParallelBulletTest {
+    private static final int BULLETS = 50_000;
+
+    // The boss wave with a field of bullets big enough to be split into chunks
+    private static GameWorld stressWorld(int threads) {
+        GameWorld world = new GameWorld(600, 600, BULLETS * 2, 1024);
+        world.reset(4, 7);
+        world.player.health = Integer.MAX_VALUE / 2;
+        world.setParallelism(threads);
+        Random random = new Random(7);
+        for (int i = 0; i < BULLETS; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double speed = 0.5 + random.nextDouble() * 3;
+            world.enemyBullets.spawn(random.nextDouble() * 600, random.nextDouble() * 600,
+                    speed * Math.cos(angle), speed * Math.sin(angle));
+        }
+        return world;
+    }
+
+    @Test
+    void parallelTicksMatchSequential() {
+        for (int threads : new int[] {2, 3, 4}) {
+            GameWorld sequential = stressWorld(1);
+            GameWorld parallel = stressWorld(threads);
+            InputState input = new InputState();
+            try {
+                for (long t = 0; t < 120; t++) {
+                    HeadlessRunner.steer(sequential, input, t);
+                    sequential.tick(input);
+                    HeadlessRunner.steer(parallel, input, t);
+                    parallel.tick(input);
+                    assertEquals(sequential.checksum(), parallel.checksum(), threads + " threads, tick " + t);
+                }
+            } finally {
+                parallel.setParallelism(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+
+class QualityGovernorTest {
+    private static final long PERIOD = 1_000_000_000L / 60;
+
+    private static int levelAfter(QualityGovernor governor, int samples, long tickNanos, long renderNanos) {
+        for (int i = 0; i < samples; i++) governor.sample(tickNanos, renderNanos);
+        return governor.level;
+    }
+
+    // Ticks and frames that each take 60% of a period run side by side at 60 FPS
+    @Test
+    void busyThreadsThatBothKeepUpKeepFullQuality() {
+        QualityGovernor governor = new QualityGovernor(PERIOD, PERIOD, -1);
+        assertEquals(0, levelAfter(governor, 600, PERIOD * 6 / 10, PERIOD * 6 / 10));
+    }
+
+    @Test
+    void eitherThreadOverItsBudgetDegrades() {
+        assertEquals(1, levelAfter(new QualityGovernor(PERIOD, PERIOD, -1), 60, PERIOD, 0));
+        assertEquals(1, levelAfter(new QualityGovernor(PERIOD, PERIOD, -1), 60, 0, PERIOD));
+        // At 30 FPS a frame has two tick periods
+        assertEquals(0, levelAfter(new QualityGovernor(PERIOD, PERIOD * 2, -1), 600, 0, PERIOD * 3 / 2));
+    }
+
+    @Test
+    void headroomOnBothThreadsRestores() {
+        QualityGovernor governor = new QualityGovernor(PERIOD, PERIOD, -1);
+        assertEquals(QualityGovernor.LEVELS - 1, levelAfter(governor, 1000, 0, PERIOD * 2));
+        // Still too slow to render, however fast the ticks are
+        assertEquals(QualityGovernor.LEVELS - 1, levelAfter(governor, 1000, 0, PERIOD * 7 / 10));
+        assertEquals(0, levelAfter(governor, 1000, PERIOD / 2, PERIOD / 2));
+    }
+
+    @Test
+    void pinnedLevelNeverChanges() {
+        QualityGovernor governor = new QualityGovernor(PERIOD, PERIOD, 2);
+        assertFalse(governor.sample(PERIOD * 10, PERIOD * 10));
+        assertEquals(2, levelAfter(governor, 1000, 0, 0));
+    }
+}
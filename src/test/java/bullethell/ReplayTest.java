@@ -0,0 +1,81 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Fixed-seed bot games must keep producing the same checksums. Refactors of
+// the simulation's data layout or of how waves are driven must not change a
+// single tick; if a change to the rules is meant to, update the values here.
+class ReplayTest {
+    // Hash of every tick's checksum over five seeded bot games of up to 3000 ticks
+    static long playthrough(int wave, boolean coop) {
+        long hash = 0;
+        for (long seed = 1; seed <= 5; seed++) {
+            GameWorld world = new GameWorld(600, 600);
+            world.coop = coop;
+            world.endless = wave > 4;
+            world.reset(wave, seed);
+            InputState input = new InputState(), partnerInput = new InputState();
+            for (long t = 0; t < 3000 && world.state == GameWorld.STATE_PLAYING; t++) {
+                HeadlessRunner.steer(world, world.player, input, t, 1);
+                if (coop) HeadlessRunner.steer(world, world.partner, partnerInput, t + 2, 1);
+                world.tick(input, partnerInput);
+                hash = hash * 31 + world.checksum();
+            }
+        }
+        return hash;
+    }
+
+    @Test
+    void seededGamesKeepTheirChecksums() {
+        assertEquals(0xcb6bf0f43f2e4f8aL, playthrough(1, false), "from wave 1");
+        assertEquals(0x5acaea97b495765aL, playthrough(4, false), "boss wave");
+        assertEquals(0x61f74fcba41c2f6bL, playthrough(8, false), "endless wave 8");
+        assertEquals(0x217d4f3105f304afL, playthrough(1, true), "co-op from wave 1");
+    }
+
+    @Test
+    void recordedRunReplaysWithoutDesync(@TempDir Path dir) throws java.io.IOException {
+        InputLog log = Replay.recordBot(5);
+        assertTrue(log.length() > 0);
+        File file = new File(dir.toFile(), "run.bhr");
+        log.write(file);
+        InputLog read = InputLog.read(file);
+        assertEquals(log.length(), read.length());
+        assertEquals(-1, Replay.run(read, new GameWorld(read.width, read.height)));
+    }
+
+    @Test
+    void otherReplayVersionsAreRejected(@TempDir Path dir) throws java.io.IOException {
+        File file = new File(dir.toFile(), "run.bhr");
+        Replay.recordBot(5).write(file);
+        byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+        // The version is the big-endian int after the magic
+        bytes[7] = 1;
+        java.nio.file.Files.write(file.toPath(), bytes);
+        assertThrows(java.io.IOException.class, () -> InputLog.read(file));
+    }
+
+    @Test
+    void replayReportsTheFirstDivergingTick() {
+        InputLog log = Replay.recordBot(5);
+        // The same run, re-recorded with a wrong checksum at tick 100
+        GameWorld world = new GameWorld(600, 600);
+        world.reset(log.startWave, log.seed);
+        InputLog tampered = InputLog.startRecording(world);
+        InputState input = new InputState();
+        for (int t = 0; t < log.length(); t++) {
+            log.input(t, input);
+            world.tick(input);
+            tampered.record(input, world.checksum() + (t == 100 ? 1 : 0));
+        }
+        assertEquals(100, Replay.run(tampered, new GameWorld(600, 600)));
+    }
+}
@@ -0,0 +1,99 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class RewindBufferTest {
+    // Enemy bullet counts for successive steps, growing and shrinking so that
+    // consecutive snapshots differ in length both ways. The run of shrinking
+    // states at the end means rewinding meets snapshots longer than any after them.
+    private static final int[] BULLETS = {0, 900, 300, 20, 1200, 1100, 40, 0, 600, 5, 5, 2000, 1500, 700, 300, 10};
+
+    static byte[] snapshot(GameWorld world) {
+        ByteBuffer buf = ByteBuffer.allocate(WorldSnapshot.sizeOf(world)).order(ByteOrder.nativeOrder());
+        int length = WorldSnapshot.write(world, buf);
+        return java.util.Arrays.copyOf(buf.array(), length);
+    }
+
+    // Records every step into rewind and returns the snapshot taken at each one
+    private static List<byte[]> record(GameWorld world, RewindBuffer rewind) {
+        world.reset(1, 3);
+        Random random = new Random(3);
+        InputState input = new InputState();
+        List<byte[]> states = new ArrayList<>();
+        for (int step = 0; step < BULLETS.length; step++) {
+            HeadlessRunner.steer(world, input, step);
+            world.tick(input);
+            BulletPool bullets = world.enemyBullets;
+            bullets.count = Math.min(bullets.count, BULLETS[step]);
+            while (bullets.count < BULLETS[step]) {
+                bullets.spawn(random.nextDouble() * 600, random.nextDouble() * 600, random.nextDouble(), random.nextDouble());
+            }
+            rewind.push(world);
+            states.add(snapshot(world));
+        }
+        return states;
+    }
+
+    @Test
+    void everyRewindDepthRestoresTheExactState() {
+        for (int k = 1; k < BULLETS.length; k++) {
+            GameWorld world = new GameWorld(600, 600);
+            RewindBuffer rewind = new RewindBuffer(64, 1 << 20);
+            List<byte[]> states = record(world, rewind);
+            assertEquals(BULLETS.length - 1, rewind.available());
+            assertEquals(k, rewind.rewind(k, world));
+            assertArrayEquals(states.get(states.size() - 1 - k), snapshot(world), "rewind of " + k + " steps");
+        }
+    }
+
+    @Test
+    void repeatedRewindsWalkBackOneStepAtATime() {
+        GameWorld world = new GameWorld(600, 600);
+        RewindBuffer rewind = new RewindBuffer(64, 1 << 20);
+        List<byte[]> states = record(world, rewind);
+        for (int k = states.size() - 2; k >= 0; k--) {
+            assertEquals(1, rewind.rewind(1, world));
+            assertArrayEquals(states.get(k), snapshot(world), "step " + k);
+        }
+        assertEquals(0, rewind.available());
+    }
+
+    // Pushing after a rewind continues the history from the restored state
+    @Test
+    void historyContinuesAfterARewind() {
+        GameWorld world = new GameWorld(600, 600);
+        RewindBuffer rewind = new RewindBuffer(64, 1 << 20);
+        List<byte[]> states = record(world, rewind);
+        rewind.rewind(4, world);
+        byte[] restored = snapshot(world);
+        for (int n : new int[] {1500, 10, 700}) {
+            world.enemyBullets.count = Math.min(world.enemyBullets.count, n);
+            while (world.enemyBullets.count < n) world.enemyBullets.spawn(n % 600, 300, 1, 1);
+            rewind.push(world);
+        }
+        assertEquals(3, rewind.rewind(3, world));
+        assertArrayEquals(restored, snapshot(world));
+        assertEquals(1, rewind.rewind(1, world));
+        assertArrayEquals(states.get(states.size() - 6), snapshot(world));
+    }
+
+    // A small ring drops the oldest steps but never corrupts the ones it keeps
+    @Test
+    void smallRingKeepsOnlyRecentStepsIntact() {
+        GameWorld world = new GameWorld(600, 600);
+        RewindBuffer rewind = new RewindBuffer(64, 48 << 10);
+        List<byte[]> states = record(world, rewind);
+        int available = rewind.available();
+        assertEquals(available, rewind.rewind(BULLETS.length, world));
+        assertArrayEquals(states.get(states.size() - 1 - available), snapshot(world));
+    }
+}
@@ -0,0 +1,87 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Two sessions on one thread, talking over UDP on the loopback interface. The
+// peers take turns running bursts of ticks, so each often runs ahead on
+// predicted input for the other; the bots change their input often, so many
+// predictions are wrong and get rolled back.
+class RollbackSessionTest {
+    private static final int TICKS = 1500;
+
+    private static int freePort() throws java.io.IOException {
+        try (java.nio.channels.DatagramChannel channel = java.nio.channels.DatagramChannel.open()) {
+            channel.bind(new java.net.InetSocketAddress("127.0.0.1", 0));
+            return ((java.net.InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+    }
+
+    private static GameWorld world() {
+        GameWorld world = new GameWorld(600, 600);
+        world.coop = true;
+        world.endless = true;
+        world.reset(1, 7);
+        world.player.health = world.player.maxHealth = 1_000_000;
+        world.partner.health = world.partner.maxHealth = 1_000_000;
+        return world;
+    }
+
+    private static void advance(RollbackSession session, InputState input) throws java.io.IOException {
+        Player me = session.slot == 0 ? session.world.player : session.world.partner;
+        HeadlessRunner.steer(session.world, me, input, session.tick, 1);
+        session.advance(input);
+        assertTrue(session.deepestRollback <= RollbackSession.MAX_ROLLBACK, session.deepestRollback + " ticks rolled back");
+        assertTrue(session.tick - 1 - session.remoteConfirmed <= RollbackSession.MAX_ROLLBACK, "ran too far ahead");
+    }
+
+    private static void playOverLoopback(double loss) throws java.io.IOException {
+        int portA = freePort(), portB = freePort();
+        try (NetLink linkA = new NetLink(portA, "127.0.0.1", portB, 0, loss, 1);
+             NetLink linkB = new NetLink(portB, "127.0.0.1", portA, 0, loss, 2)) {
+            RollbackSession[] peers = {new RollbackSession(world(), 0, linkA, 5), new RollbackSession(world(), 1, linkB, 5)};
+            InputState[] inputs = {new InputState(), new InputState()};
+            Random turns = new Random(3);
+            while (peers[0].tick < TICKS || peers[1].tick < TICKS) {
+                int p = peers[0].tick >= TICKS ? 1 : peers[1].tick >= TICKS ? 0 : turns.nextInt(2);
+                // A burst of up to 6 ticks; past MAX_ROLLBACK ahead of the peer, advance() stalls
+                for (int k = 1 + turns.nextInt(6); k > 0 && peers[p].tick < TICKS; k--) advance(peers[p], inputs[p]);
+            }
+            // Until each side has, and knows the other has, every input
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (!settled(peers[0]) || !settled(peers[1])) {
+                assertTrue(System.nanoTime() < deadline, "peers never settled");
+                for (RollbackSession s : peers) s.settle();
+            }
+
+            String where = "loss " + loss;
+            assertEquals(peers[0].world.checksum(), peers[1].world.checksum(), where);
+            for (long t = TICKS - 200; t < TICKS; t++) {
+                assertEquals(peers[0].checksum(t), peers[1].checksum(t), where + ", tick " + t);
+            }
+            for (RollbackSession s : peers) {
+                assertEquals(-1, s.desyncTick, where);
+                assertTrue(s.rollbacks > 0 && s.deepestRollback > 1, where + ": " + s.rollbacks + " rollbacks");
+                assertTrue(s.deepestRollback <= RollbackSession.MAX_ROLLBACK, where);
+            }
+        }
+    }
+
+    private static boolean settled(RollbackSession s) {
+        return s.remoteConfirmed >= TICKS - 1 && s.localAcked >= TICKS - 1;
+    }
+
+    @Test
+    void peersAgreeAfterRollingBackMispredictions() throws java.io.IOException {
+        playOverLoopback(0);
+    }
+
+    @Test
+    void peersAgreeWhenPacketsAreLost() throws java.io.IOException {
+        playOverLoopback(0.3);
+    }
+}
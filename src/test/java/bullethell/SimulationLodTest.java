@@ -0,0 +1,84 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SimulationLodTest {
+    private static final int TICKS = 120;
+    // Enemies move a little over the test, so only those well inside or well
+    // outside the radius are checked
+    private static final int MARGIN = 300;
+
+    private static GameWorld played(int size) {
+        GameWorld world = new GameWorld(size, size);
+        world.reset(1, 1);
+        world.player.health = Integer.MAX_VALUE / 2;
+        InputState idle = new InputState();
+        for (int t = 0; t < TICKS; t++) world.tick(idle);
+        return world;
+    }
+
+    private static double distance(GameWorld world, double x, double y) {
+        Player p = world.player;
+        return Math.hypot(x - (p.x + p.width / 2.0), y - (p.y + p.height / 2.0));
+    }
+
+    @Test
+    void builtInStageSpreadsOverALargeArena() {
+        assertSame(StageScript.DEFAULT, new GameWorld(600, 600).stage);
+        assertSame(StageScript.DEFAULT, new GameWorld(1000, 800).stage);
+
+        // 13 x 13 tiles of 600px
+        GameWorld world = new GameWorld(8000, 8000);
+        world.reset(1, 1);
+        assertEquals(169 * 3, world.enemies.normals.count);
+        world.reset(3, 1);
+        assertEquals(169 * 5, world.enemies.normals.count);
+        // One boss, on the players' starting tile, and wave 3's row everywhere else
+        world.reset(4, 1);
+        EnemyArchetype bosses = world.enemies.bosses;
+        assertEquals(1, bosses.count);
+        assertEquals(168 * 5, world.enemies.normals.count);
+        assertTrue(distance(world, bosses.x[0] + bosses.width / 2.0, bosses.y[0] + bosses.height / 2.0) < world.lod.radius);
+    }
+
+    @Test
+    void distantEnemiesGoDormantAndNearOnesFire() {
+        GameWorld world = played(8000);
+        EnemyArchetype a = world.enemies.normals;
+        int near = 0, far = 0;
+        for (int i = 0; i < a.count; i++) {
+            double d = distance(world, a.x[i] + a.width / 2.0, a.y[i] + a.height / 2.0);
+            if (d < world.lod.radius - MARGIN) {
+                near++;
+                assertTrue(a.shootTimer[i] < a.shootDelay[i], "near enemy " + i + "'s timer stood still");
+            } else if (d > world.lod.radius + MARGIN) {
+                far++;
+                assertEquals(a.shootDelay[i], a.shootTimer[i], "dormant enemy " + i + "'s timer ran");
+                // Dormant enemies still move
+                assertTrue(a.x[i] != a.prevX[i] || a.speed[i] == 0, "dormant enemy " + i + " stood still");
+            }
+        }
+        assertTrue(near > 0 && far > 400, near + " near, " + far + " far");
+
+        // Enemy bullets exist only around the player
+        BulletPool bullets = world.enemyBullets;
+        assertTrue(bullets.count > 0);
+        for (int b = 0; b < bullets.count; b++) {
+            assertTrue(distance(world, bullets.centerX(b), bullets.centerY(b)) < world.lod.radius + MARGIN, "bullet " + b);
+        }
+    }
+
+    @Test
+    void everyEnemyIsActiveInASmallArena() {
+        GameWorld world = played(600);
+        EnemyArchetype a = world.enemies.normals;
+        assertEquals(3, a.count);
+        for (int i = 0; i < a.count; i++) {
+            assertTrue(a.shootTimer[i] < a.shootDelay[i], "enemy " + i);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// The grid is only a broad-phase: it may return a target a probe doesn't touch,
+// but never miss one it does. Checked against testing every pair of boxes.
+class SpatialGridTest {
+    private static final int CELL = 1 << SpatialGrid.CELL_SHIFT;
+
+    // Half the coordinates land within a pixel of a cell edge, and some boxes hang
+    // past the arena's edges
+    private static int coordinate(Random random, int size) {
+        if (random.nextBoolean()) return random.nextInt(size + 80) - 40;
+        return (random.nextInt(size / CELL + 3) - 1) * CELL + random.nextInt(3) - 1;
+    }
+
+    private static int extent(Random random) {
+        switch (random.nextInt(4)) {
+            case 0: return 1;
+            case 1: return CELL;
+            case 2: return CELL + 1;
+            default: return 1 + random.nextInt(3 * CELL);
+        }
+    }
+
+    private static boolean overlaps(int[] a, int[] b) {
+        return a[0] < b[0] + b[2] && b[0] < a[0] + a[2] && a[1] < b[1] + b[3] && b[1] < a[1] + a[3];
+    }
+
+    private static void assertNoPairMissed(SpatialGrid grid, Random random, int width, int height) {
+        grid.reset(width, height);
+        int[][] targets = new int[random.nextInt(40)][];
+        for (int id = 0; id < targets.length; id++) {
+            targets[id] = new int[] {coordinate(random, width), coordinate(random, height), extent(random), extent(random)};
+            grid.insert(id, targets[id][0], targets[id][1], targets[id][2], targets[id][3]);
+        }
+        for (int q = 0; q < 200; q++) {
+            int[] probe = {coordinate(random, width), coordinate(random, height), extent(random), extent(random)};
+            int n = grid.query(probe[0], probe[1], probe[2], probe[3]);
+            boolean[] found = new boolean[targets.length];
+            for (int k = 0; k < n; k++) {
+                assertFalse(found[grid.result(k)], "id returned twice");
+                found[grid.result(k)] = true;
+            }
+            for (int id = 0; id < targets.length; id++) {
+                String where = width + "x" + height + " probe " + java.util.Arrays.toString(probe)
+                        + " target " + id + " " + java.util.Arrays.toString(targets[id]);
+                if (overlaps(probe, targets[id])) assertTrue(found[id], where + " missed");
+                assertEquals(found[id], grid.contains(id), where);
+                assertEquals(found[id], grid.cellsContain(id, probe[0], probe[1], probe[2], probe[3]), where);
+            }
+        }
+    }
+
+    @Test
+    void noOverlappingPairIsMissed() {
+        Random random = new Random(1);
+        SpatialGrid grid = new SpatialGrid();
+        // Rebuilt many times, at sizes that change between rebuilds and sizes that don't
+        int[][] arenas = {{600, 600}, {600, 600}, {600, 450}, {800, 1000}, {300, 250}, {31, 33}, {600, 600}};
+        for (int round = 0; round < 100; round++) {
+            int[] arena = arenas[round % arenas.length];
+            assertNoPairMissed(grid, random, arena[0], arena[1]);
+        }
+    }
+
+    // Probes far from every target find nothing, and a rebuild forgets old targets
+    @Test
+    void distantProbesFindNothing() {
+        SpatialGrid grid = new SpatialGrid();
+        grid.reset(600, 600);
+        grid.insert(0, CELL - 1, CELL - 1, 2, 2); // spans four cells
+        assertEquals(1, grid.query(0, 0, 1, 1));
+        assertEquals(1, grid.query(CELL, CELL, 1, 1));
+        assertEquals(0, grid.query(2 * CELL, 0, CELL, CELL));
+        assertEquals(0, grid.query(0, 2 * CELL, CELL, CELL));
+        assertFalse(grid.contains(0));
+        // Past the arena, a box clamps to the border cells
+        grid.insert(1, 700, -50, 10, 10);
+        assertEquals(1, grid.query(600 - 1, 0, 1, 1));
+        assertEquals(1, grid.result(0));
+        grid.reset(600, 600);
+        assertEquals(0, grid.query(0, 0, 600, 600));
+    }
+}
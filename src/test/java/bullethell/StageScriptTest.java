@@ -0,0 +1,176 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StageScriptTest {
+    // The built-in stage, written out as a script
+    private static final String DEFAULT_TEXT = String.join("\n",
+            "wave",
+            "0 spawn normal 130 50", "0 spawn normal 280 50", "0 spawn normal 430 50",
+            "wave",
+            "0 spawn normal 100 50", "0 spawn normal 220 50", "0 spawn normal 340 50", "0 spawn normal 460 50",
+            "wave",
+            "0 spawn normal 80 50", "0 spawn normal 180 50", "0 spawn normal 280 50", "0 spawn normal 380 50",
+            "0 spawn normal 480 50",
+            "wave",
+            "0 spawn boss 200 50");
+
+    private static long[] checksums(StageScript stage, long seed) {
+        GameWorld world = new GameWorld(600, 600);
+        world.stage = stage;
+        world.reset(1, seed);
+        InputState input = new InputState();
+        long[] sums = new long[3000];
+        for (int t = 0; t < sums.length && world.state == GameWorld.STATE_PLAYING; t++) {
+            HeadlessRunner.steer(world, input, t);
+            world.tick(input);
+            sums[t] = world.checksum();
+        }
+        return sums;
+    }
+
+    // The same stage as a text file, as a compiled file and built in plays the same game
+    @Test
+    void textBinaryAndBuiltInStagesPlayIdentically(@TempDir Path dir) throws java.io.IOException {
+        File text = dir.resolve("stage.txt").toFile();
+        Files.write(text.toPath(), DEFAULT_TEXT.getBytes(StandardCharsets.UTF_8));
+        File binary = dir.resolve("stage.bhs").toFile();
+        Files.write(binary.toPath(), StageScript.toBinary(DEFAULT_TEXT));
+        for (long seed = 1; seed <= 3; seed++) {
+            long[] expected = checksums(StageScript.DEFAULT, seed);
+            assertArrayEquals(expected, checksums(StageScript.load(text), seed));
+            assertArrayEquals(expected, checksums(StageScript.load(binary), seed));
+        }
+    }
+
+    @Test
+    void eventsFireOnTheirFrame() {
+        GameWorld world = new GameWorld(600, 600);
+        world.stage = StageScript.compile(String.join("\n",
+                "pattern aimed fan 5 3.0 40",
+                "wave",
+                "0 spawn normal 100 50",
+                "60 spawn normal 300 50 pattern=aimed speed=0 health=10",
+                "90 move normal 7",
+                "100 pattern normal aimed",
+                "wave",
+                "0 spawn boss 200 50 health=5"));
+        world.reset(1, 1);
+        world.player.health = Integer.MAX_VALUE / 2;
+        EnemyArchetype normals = world.enemies.normals;
+        InputState idle = new InputState();
+        assertEquals(1, normals.count);
+        for (int t = 1; t < 60; t++) world.tick(idle);
+        assertEquals(1, normals.count);
+        world.tick(idle);
+        assertEquals(2, normals.count);
+        assertEquals(10, normals.health[1]);
+        assertEquals(0, normals.speed[1]);
+        assertEquals(world.stage.patterns(0), normals.patterns[1]);
+        for (int t = 61; t < 90; t++) world.tick(idle);
+        assertEquals(0, normals.speed[1]);
+        world.tick(idle);
+        assertEquals(7, normals.speed[0]);
+        assertEquals(7, normals.speed[1]);
+        for (int t = 91; t < 100; t++) world.tick(idle);
+        assertEquals(EnemyStore.NORMAL_PATTERNS, normals.patterns[0]);
+        world.tick(idle);
+        assertEquals(world.stage.patterns(0), normals.patterns[0]);
+
+        // With every event fired and the enemies gone, the next wave starts with its boss
+        java.util.Arrays.fill(normals.health, 0, normals.count, 0);
+        world.enemies.removeDead();
+        world.tick(idle);
+        assertEquals(2, world.wave);
+        assertEquals(1, world.enemies.bosses.count);
+        assertEquals(5, world.enemies.bosses.health[0]);
+    }
+
+    // A normal enemy firing every 60 frames still works through its whole list
+    @Test
+    void normalEnemiesCycleTheirPatternLists() {
+        StageScript stage = StageScript.compile("pattern two ring 4 3.0; ring 7 3.0\nwave\n0 spawn normal 100 50");
+        EnemyStore enemies = new EnemyStore();
+        int i = enemies.addNormal(100, 50, 1, Balance.DEFAULT);
+        enemies.normals.patterns[i] = stage.patterns(0);
+        BulletPool bullets = new BulletPool(256);
+        int[] shots = new int[6];
+        for (int k = 0; k < shots.length; k++) {
+            int before = bullets.count;
+            enemies.normals.fire(i, bullets, k * 60, 0, 0);
+            shots[k] = bullets.count - before;
+        }
+        assertArrayEquals(new int[] {4, 4, 7, 7, 4, 4}, shots);
+    }
+
+    @Test
+    void malformedScriptsAreRejected(@TempDir Path dir) throws java.io.IOException {
+        assertThrows(IllegalArgumentException.class, () -> StageScript.compile("0 spawn normal 1 2"));
+        assertThrows(IllegalArgumentException.class, () -> StageScript.compile("wave\n0 spawn dragon 1 2"));
+        assertThrows(IllegalArgumentException.class, () -> StageScript.compile("wave\n0 spawn normal 1 2 pattern=missing"));
+        assertThrows(IllegalArgumentException.class, () -> StageScript.compile("wave\n-5 spawn normal 1 2"));
+
+        // Every truncation of a compiled stage
+        File file = dir.resolve("stage.bhs").toFile();
+        byte[] whole = StageScript.toBinary("pattern two ring 4 3.0; ring 7 3.0\n" + DEFAULT_TEXT);
+        for (int length = 0; length < whole.length; length++) {
+            Files.write(file.toPath(), java.util.Arrays.copyOf(whole, length));
+            assertThrows(IllegalArgumentException.class, () -> StageScript.load(file), length + " bytes");
+        }
+
+        // Damaged counts and events. This stage has no patterns and one wave of one
+        // event: pattern count at 8, wave count at 12, the wave at 16, the event at 24.
+        byte[] good = StageScript.toBinary("wave\n0 spawn normal 1 2");
+        int[][] damage = {
+                {8, -1}, {8, 0x7FFFFFFF}, {12, -1}, {12, 0x7FFFFFFF}, // counts
+                {16, -1}, {20, -1}, {20, 0x7FFFFFFF},                 // wave's first event and event count
+                {24, -1},                                             // frame
+        };
+        for (int[] d : damage) {
+            byte[] bad = good.clone();
+            ByteBuffer.wrap(bad).putInt(d[0], d[1]);
+            Files.write(file.toPath(), bad);
+            assertThrows(IllegalArgumentException.class, () -> StageScript.load(file), "int " + d[1] + " at " + d[0]);
+        }
+        // Event type and enemy kind out of range
+        for (int[] d : new int[][] {{28, -1}, {28, 3}, {29, -1}, {29, 2}}) {
+            byte[] bad = good.clone();
+            bad[d[0]] = (byte) d[1];
+            Files.write(file.toPath(), bad);
+            assertThrows(IllegalArgumentException.class, () -> StageScript.load(file), "byte " + d[1] + " at " + d[0]);
+        }
+        // A spawn's pattern below -1 (none), or past the stage's lists
+        for (short pattern : new short[] {-2, 0}) {
+            byte[] bad = good.clone();
+            ByteBuffer.wrap(bad).putShort(30, pattern);
+            Files.write(file.toPath(), bad);
+            assertThrows(IllegalArgumentException.class, () -> StageScript.load(file), "pattern " + pattern);
+        }
+    }
+
+    // A damaged -Dbullethell.stage file falls back to the built-in stage
+    @Test
+    void damagedConfiguredStageFallsBackToTheDefault(@TempDir Path dir) throws java.io.IOException {
+        File file = dir.resolve("stage.bhs").toFile();
+        byte[] whole = StageScript.toBinary(DEFAULT_TEXT);
+        Files.write(file.toPath(), java.util.Arrays.copyOf(whole, whole.length / 2));
+        System.setProperty("bullethell.stage", file.getPath());
+        try {
+            assertSame(StageScript.DEFAULT, StageScript.configured(600, 600));
+        } finally {
+            System.clearProperty("bullethell.stage");
+        }
+    }
+}
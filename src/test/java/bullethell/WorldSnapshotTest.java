@@ -0,0 +1,85 @@
+package bullethell;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WorldSnapshotTest {
+    // A co-op endless game some way into the boss wave
+    private static GameWorld played(long ticks) {
+        GameWorld world = new GameWorld(600, 600);
+        world.coop = true;
+        world.endless = true;
+        world.reset(4, 11);
+        InputState input = new InputState(), partnerInput = new InputState();
+        for (long t = 0; t < ticks; t++) {
+            HeadlessRunner.steer(world, world.player, input, t, 1);
+            HeadlessRunner.steer(world, world.partner, partnerInput, t + 2, 1);
+            world.tick(input, partnerInput);
+        }
+        return world;
+    }
+
+    private static void read(byte[] bytes, GameWorld world) {
+        WorldSnapshot.read(ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder()), world);
+    }
+
+    @Test
+    void restoredWorldPlaysOnIdentically() {
+        GameWorld original = played(400);
+        byte[] bytes = RewindBufferTest.snapshot(original);
+        GameWorld copy = new GameWorld(600, 600);
+        read(bytes, copy);
+        assertArrayEquals(bytes, RewindBufferTest.snapshot(copy));
+        assertEquals(original.checksum(), copy.checksum());
+
+        InputState input = new InputState(), partnerInput = new InputState();
+        for (long t = 400; t < 1000; t++) {
+            for (GameWorld w : new GameWorld[] {original, copy}) {
+                HeadlessRunner.steer(w, w.player, input, t, 1);
+                HeadlessRunner.steer(w, w.partner, partnerInput, t + 2, 1);
+                w.tick(input, partnerInput);
+            }
+            assertEquals(original.checksum(), copy.checksum(), "tick " + t);
+        }
+    }
+
+    @Test
+    void snapshotForAnotherArenaSizeIsRejected() {
+        byte[] bytes = RewindBufferTest.snapshot(played(10));
+        assertThrows(IllegalArgumentException.class, () -> read(bytes, new GameWorld(800, 600)));
+        bytes[0] ^= 1;
+        assertThrows(IllegalArgumentException.class, () -> read(bytes, new GameWorld(600, 600)));
+    }
+
+    @Test
+    void otherSnapshotVersionsAreRejected() {
+        byte[] bytes = RewindBufferTest.snapshot(played(10));
+        ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+        for (int version : new int[] {1, 2, 3, 5}) {
+            buf.putInt(4, version);
+            assertThrows(IllegalArgumentException.class, () -> read(bytes, new GameWorld(600, 600)), "version " + version);
+        }
+    }
+
+    @Test
+    void saveSlotsRoundTripThroughTheFile(@TempDir Path dir) throws java.io.IOException {
+        SaveSlots saves = new SaveSlots(dir.toFile());
+        GameWorld original = played(300);
+        GameWorld loaded = new GameWorld(600, 600);
+        assertEquals(false, saves.load(1, loaded));
+        saves.save(1, original);
+        assertTrue(new File(dir.toFile(), "slot1.bhs").isFile());
+        assertTrue(saves.load(1, loaded));
+        assertArrayEquals(RewindBufferTest.snapshot(original), RewindBufferTest.snapshot(loaded));
+    }
+}